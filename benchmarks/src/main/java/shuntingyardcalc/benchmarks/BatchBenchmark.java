@@ -0,0 +1,99 @@
+package shuntingyardcalc.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shuntingyardcalc.BatchEvaluator;
+import shuntingyardcalc.CalculatorEngine;
+
+/**
+ * Measures BatchEvaluator on sqrt(x^2+y^2) over two columns of random values, as binary columns and as a CSV file.
+ * One operation is the whole file, so the throughput in rows per second is rows / (time per operation).
+ * The parallelism can be changed with -Djava.util.concurrent.ForkJoinPool.common.parallelism=N (with -jvmArgsAppend).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+	@Param({"1000000"})
+	public int rows;
+
+	private Path dir;
+	private Path[] columns;
+	private Path csv;
+	private BatchEvaluator batch;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("batch");
+		columns = new Path[]{dir.resolve("x.bin"), dir.resolve("y.bin")};
+		csv = dir.resolve("xy.csv");
+		var random = new Random(42);
+		try (var x = FileChannel.open(columns[0], StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				var y = FileChannel.open(columns[1], StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				var text = Files.newBufferedWriter(csv)) {
+			var xBuf = ByteBuffer.allocate(8 * 4096).order(ByteOrder.LITTLE_ENDIAN);
+			var yBuf = ByteBuffer.allocate(8 * 4096).order(ByteOrder.LITTLE_ENDIAN);
+			text.write("x,y\n");
+			for (int i = 0; i < rows; i++) {
+				double xVal = random.nextInt(2000000) / 1000.0; //sensor-like readings, 3 decimals
+				double yVal = random.nextInt(2000000) / 1000.0;
+				xBuf.putDouble(xVal);
+				yBuf.putDouble(yVal);
+				text.write(xVal + "," + yVal + "\n");
+				if (!xBuf.hasRemaining()) {
+					x.write(xBuf.flip());
+					y.write(yBuf.flip());
+					xBuf.clear();
+					yBuf.clear();
+				}
+			}
+			x.write(xBuf.flip());
+			y.write(yBuf.flip());
+		}
+		batch = new BatchEvaluator(new CalculatorEngine(16), "sqrt(x^2+y^2)", new String[]{"x", "y"}, 10, false);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public long binary() throws IOException {
+		return batch.evaluateBinary(columns, dir.resolve("binary.out"));
+	}
+
+	@Benchmark
+	public long csv() throws IOException {
+		return batch.evaluateCsv(csv, dir.resolve("csv.out"));
+	}
+}
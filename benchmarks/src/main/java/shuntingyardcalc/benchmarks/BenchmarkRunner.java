@@ -0,0 +1,25 @@
+package shuntingyardcalc.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmark jar. Accepts the usual JMH command line (e.g. a benchmark name regex,
+ * -p scenario=trig, -f 3), and always attaches the GC profiler so every result comes with its
+ * allocation rate (gc.alloc.rate.norm is the number of bytes allocated per operation).
+ * Throughput and the latency percentiles (p0.50 ... p0.9999) come from the modes set on each benchmark.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		ChainedOptionsBuilder opts = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class);
+		new Runner(opts.build()).run();
+	}
+}
@@ -0,0 +1,67 @@
+package shuntingyardcalc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shuntingyardcalc.Calculator;
+
+/**
+ * Measures editing a long expression that has already been typed: Backspace followed by a key press,
+ * and switching the angle measure followed by a key press. Both force the calculator to bring its stacks
+ * back in sync with the display (the recalculateStack replay).
+ * 
+ * Each operation pops the last token and appends it again, so the expression keeps its length.
+ * (For the digits scenario, the first pop removes the whole second number, after that it is stable)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditBenchmark {
+
+	@Param({"everyday", "nested", "digits", "powers", "trig"})
+	public String scenario;
+
+	private String last;
+	private Calculator calc;
+
+	@Setup
+	public void setup() {
+		String[] tokens = Expressions.get(scenario);
+		last = tokens[tokens.length - 1];
+		calc = new Calculator();
+		for (String token : tokens) {
+			calc.requestAppend(token);
+		}
+	}
+
+	/**
+	 * Backspace, then retype the removed token
+	 */
+	@Benchmark
+	public String backspace() {
+		calc.requestPop();
+		return calc.requestAppend(last);
+	}
+
+	/**
+	 * Switch between radians and degrees, then Backspace and retype the last token
+	 */
+	@Benchmark
+	public String toggleAngle() {
+		calc.toggleAngleMeasure();
+		calc.requestPop();
+		return calc.requestAppend(last);
+	}
+}
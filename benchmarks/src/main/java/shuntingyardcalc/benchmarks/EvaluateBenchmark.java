@@ -0,0 +1,69 @@
+package shuntingyardcalc.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import shuntingyardcalc.Calculator;
+import shuntingyardcalc.CompiledExpression;
+
+/**
+ * Measures the headless Calculator.evaluate(String) entry point on the same scenarios as the keystroke benchmarks,
+ * written as one string. Compares a repeated expression (plan cache hit), compiling every time, and running a plan directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluateBenchmark {
+
+	@Param({"everyday", "nested", "digits", "powers", "trig"})
+	public String scenario;
+
+	private String expression;
+	private CompiledExpression plan;
+	private Calculator calc;
+
+	@Setup
+	public void setup() {
+		expression = String.join("", Expressions.get(scenario));
+		calc = new Calculator();
+		plan = calc.compile(expression);
+	}
+
+	/**
+	 * Same text every time, so every call after the first is a plan cache hit
+	 */
+	@Benchmark
+	public BigDecimal evaluateCached() {
+		return calc.evaluate(expression);
+	}
+
+	/**
+	 * Lexes and compiles the text on every call
+	 */
+	@Benchmark
+	public CompiledExpression compile() {
+		calc.getPlanCache().clear();
+		return calc.compile(expression);
+	}
+
+	/**
+	 * Runs an already compiled plan
+	 */
+	@Benchmark
+	public BigDecimal evaluatePlan() {
+		return calc.evaluate(plan);
+	}
+}
@@ -0,0 +1,128 @@
+package shuntingyardcalc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token streams used by the benchmarks. Each stream is exactly what the GUI sends to
+ * Calculator.requestAppend, one key press per element (e.g. the sine button sends "sin" then "(").
+ * The streams are built once and shared, so the benchmarks only measure the calculator itself.
+ */
+final class Expressions {
+
+	private Expressions() {
+	}
+
+	/**
+	 * Gets the token stream for a scenario name
+	 * @param name one of: everyday, nested, digits, powers, trig
+	 * @return the tokens, in key press order
+	 */
+	static String[] get(String name) {
+		switch (name) {
+			case "everyday":
+				return everyday();
+			case "nested":
+				return nested(32);
+			case "digits":
+				return digits(200);
+			case "powers":
+				return powers(12);
+			case "trig":
+				return trig(12);
+			default:
+				throw new IllegalArgumentException("Unknown scenario: " + name);
+		}
+	}
+
+	/**
+	 * A short sum like the ones typed by hand: 12.5+34*2-7/4
+	 */
+	static String[] everyday() {
+		return "1 2 . 5 + 3 4 * 2 - 7 / 4".split(" ");
+	}
+
+	/**
+	 * Deeply nested brackets: (1+(2+(3+...)))
+	 * Closing brackets are left to getEvaluation for half of them
+	 * @param depth number of open brackets
+	 */
+	static String[] nested(int depth) {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < depth; i++) {
+			tokens.add("(");
+			tokens.add(Integer.toString(i % 9 + 1));
+			tokens.add(i % 2 == 0 ? "+" : "*");
+		}
+		tokens.add("2");
+		for (int i = 0; i < depth / 2; i++) {
+			tokens.add(")");
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * Two long numbers typed digit by digit and multiplied
+	 * @param length number of digits in each operand
+	 */
+	static String[] digits(int length) {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			tokens.add(Integer.toString(i % 9 + 1));
+		}
+		tokens.add("*");
+		for (int i = 0; i < length; i++) {
+			tokens.add(Integer.toString((i + 4) % 9 + 1));
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * Chain of square roots and powers: sqrt(2)^3+sqrt(3)^2.5+...
+	 * @param terms number of terms
+	 */
+	static String[] powers(int terms) {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) {
+				tokens.add("+");
+			}
+			tokens.add("sqrt");
+			tokens.add("(");
+			tokens.add(Integer.toString(i % 8 + 2));
+			tokens.add(")");
+			tokens.add("^");
+			tokens.add(Integer.toString(i % 4 + 2));
+			if (i % 2 == 1) {
+				tokens.add(".");
+				tokens.add("5");
+			}
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * Chain of nested trig calls: sin(cos(tan(30)))*sin(cos(tan(31)))...
+	 * @param terms number of terms
+	 */
+	static String[] trig(int terms) {
+		List<String> tokens = new ArrayList<>();
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) {
+				tokens.add("*");
+			}
+			tokens.add("sin");
+			tokens.add("(");
+			tokens.add("cos");
+			tokens.add("(");
+			tokens.add("tan");
+			tokens.add("(");
+			tokens.add("3");
+			tokens.add(Integer.toString(i % 10));
+			tokens.add(")");
+			tokens.add(")");
+			tokens.add(")");
+		}
+		return tokens.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,92 @@
+package shuntingyardcalc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import shuntingyardcalc.Calculator;
+import shuntingyardcalc.DisplayListener;
+
+/**
+ * Measures typing a whole expression key by key through requestAppend, with and without the final
+ * getEvaluation (the Enter key), and with a view that follows the display like the GUI does. One benchmark operation is one full expression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeystrokeBenchmark {
+
+	@Param({"everyday", "nested", "digits", "powers", "trig"})
+	public String scenario;
+
+	private String[] tokens;
+	private Calculator calc;
+	private Calculator viewedCalc; //has a listener, so the other benchmarks don't pay for it
+	private StringBuilder view; //stands for the text field of the GUI
+
+	@Setup
+	public void setup() {
+		tokens = Expressions.get(scenario);
+		calc = new Calculator();
+		viewedCalc = new Calculator();
+		view = new StringBuilder();
+		viewedCalc.addDisplayListener(new DisplayListener() {
+			@Override
+			public void displayInserted(int offset, String text) {
+				view.insert(offset, text);
+			}
+
+			@Override
+			public void displayRemoved(int offset, int length) {
+				view.delete(offset, offset + length);
+			}
+		});
+	}
+
+	/**
+	 * Types every token of the scenario, starting from a cleared calculator
+	 */
+	@Benchmark
+	public void type(Blackhole bh) {
+		calc.requestClearBtn();
+		for (String token : tokens) {
+			bh.consume(calc.requestAppend(token));
+		}
+	}
+
+	/**
+	 * Types every token of the scenario and presses Enter
+	 */
+	@Benchmark
+	public String[] typeAndEvaluate(Blackhole bh) {
+		calc.requestClearBtn();
+		for (String token : tokens) {
+			bh.consume(calc.requestAppend(token));
+		}
+		return calc.getEvaluation();
+	}
+
+	/**
+	 * Types every token of the scenario while a view follows the display through its change events
+	 */
+	@Benchmark
+	public int typeWithView(Blackhole bh) {
+		viewedCalc.requestClearBtn();
+		for (String token : tokens) {
+			bh.consume(viewedCalc.requestAppend(token));
+		}
+		return view.length();
+	}
+}
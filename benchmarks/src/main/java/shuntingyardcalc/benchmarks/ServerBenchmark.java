@@ -0,0 +1,129 @@
+package shuntingyardcalc.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import shuntingyardcalc.CalculatorEngine;
+import shuntingyardcalc.CalculatorServer;
+import shuntingyardcalc.EvaluationBudget;
+
+/**
+ * Measures CalculatorServer on loopback TCP: the latency of one request at a time, and the throughput of pipelined requests.
+ * Each benchmark thread has its own connection, use -t to add connections.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerBenchmark {
+
+	private static final int PIPELINED = 64; //requests sent before reading their responses
+
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		@Param({"everyday", "nested", "digits", "powers", "trig"})
+		public String scenario;
+
+		private ServerSocketChannel channel;
+		private Thread thread;
+		private byte[] request;
+
+		@Setup
+		public void setup() throws IOException {
+			String expression = String.join("", Expressions.get(scenario)).replace("\\", "\\\\").replace("\"", "\\\"");
+			request = ("{\"expression\":\"" + expression + "\",\"precision\":16}\n").getBytes(StandardCharsets.UTF_8);
+			channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			var server = new CalculatorServer(new CalculatorEngine(4096), 1024, EvaluationBudget.DEFAULT);
+			thread = new Thread(() -> {
+				try {
+					server.serve(channel);
+				} catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				}
+			}, "Benchmark server");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@TearDown
+		public void tearDown() throws IOException, InterruptedException {
+			channel.close();
+			thread.join();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Connection {
+
+		private Socket socket;
+		private OutputStream out;
+		private BufferedReader in;
+		private byte[] batch;
+
+		@Setup(Level.Trial)
+		public void setup(Server server) throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), ((InetSocketAddress) server.channel.getLocalAddress()).getPort());
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			batch = new byte[server.request.length * PIPELINED];
+			for (int i = 0; i < PIPELINED; i++) {
+				System.arraycopy(server.request, 0, batch, i * server.request.length, server.request.length);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Sends a request and waits for its response
+	 */
+	@Benchmark
+	public String roundTrip(Server server, Connection conn) throws IOException {
+		conn.out.write(server.request);
+		conn.out.flush();
+		return conn.in.readLine();
+	}
+
+	/**
+	 * Sends PIPELINED requests at once, then reads their responses (results are per request)
+	 */
+	@Benchmark
+	@OperationsPerInvocation(PIPELINED)
+	public String pipelined(Connection conn) throws IOException {
+		conn.out.write(conn.batch);
+		conn.out.flush();
+		String last = null;
+		for (int i = 0; i < PIPELINED; i++) {
+			last = conn.in.readLine();
+		}
+		return last;
+	}
+}
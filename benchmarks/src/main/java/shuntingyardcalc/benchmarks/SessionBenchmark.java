@@ -0,0 +1,66 @@
+package shuntingyardcalc.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import shuntingyardcalc.CalculatorEngine;
+import shuntingyardcalc.CalculatorSession;
+
+/**
+ * Measures many threads evaluating with one shared CalculatorEngine, each through its own session.
+ * Run with different thread counts (-t 1, -t 4, ...) to check that the throughput scales with the cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class SessionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		@Param({"everyday", "nested", "digits", "powers", "trig"})
+		public String scenario;
+
+		private String expression;
+		private CalculatorEngine engine;
+
+		@Setup
+		public void setup() {
+			expression = String.join("", Expressions.get(scenario));
+			engine = new CalculatorEngine(4096);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PerThread {
+
+		private CalculatorSession session;
+
+		@Setup
+		public void setup(Shared shared) {
+			session = shared.engine.newSession();
+		}
+	}
+
+	/**
+	 * Same text on every thread, so all of them hit the same plan in the shared cache
+	 */
+	@Benchmark
+	public BigDecimal evaluateShared(Shared shared, PerThread local) {
+		return local.session.evaluate(shared.expression);
+	}
+}
@@ -0,0 +1,546 @@
+package shuntingyardcalc;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates one expression over many rows of values, ex: "sqrt(x^2+y^2)" with a column for x and one for y.
+ * The expression is compiled once, then the rows are split in chunks that are evaluated in parallel on the common ForkJoinPool.
+ *
+ * Input and output are memory mapped a chunk at a time, so the heap used doesn't grow with the size of the files:
+ * - binary: one file per column, of little endian doubles (8 bytes per row). Each double is taken as its exact value
+ * - CSV: one file, with the column names in its first line and decimal numbers in the other lines (empty lines are skipped)
+ * The output is a column of little endian doubles, one per row: the result rounded to the precision, or NaN if it's an error.
+ *
+ * Each row is evaluated like CalculatorSession.evaluate (doubles first, BigDecimal when they can't guarantee the digits), with Ans = 0.
+ * Immutable, so an evaluator can be shared and used by many threads.
+ */
+public final class BatchEvaluator {
+
+	private static final int ROWS_PER_CHUNK = 1 << 16; //binary
+	private static final int BYTES_PER_CHUNK = 1 << 22; //CSV
+	private static final int MAX_LINE = 1 << 20; //longest CSV line, a chunk maps this much more to finish its last line
+
+	private final CalculatorEngine engine;
+	private final CompiledExpression plan;
+	private final String[] columns;
+	private final int precision;
+	private final boolean degreeMode;
+	private final EvaluationBudget budget; //limits of the evaluation of each row
+
+	/**
+	 * Constructor, compiles the expression. The rows are evaluated with EvaluationBudget.DEFAULT, see withBudget
+	 * @param engine the engine to compile and evaluate with
+	 * @param expression the expression, using the column names as variables
+	 * @param columns names of the columns: letters, digits and _, starting with a letter, and not a function or constant name
+	 * @param precision number of significant digits of the results
+	 * @param degreeMode true if angles are in degrees
+	 * @throws CalculatorException on a syntax error
+	 * @throws IllegalArgumentException if a column name can't be used, or the precision isn't positive
+	 */
+	public BatchEvaluator(CalculatorEngine engine, String expression, String[] columns, int precision, boolean degreeMode) {
+		if (precision <= 0) {
+			throw new IllegalArgumentException("precision must be positive");
+		}
+		this.engine = engine;
+		this.columns = columns.clone();
+		plan = engine.compile(expression, this.columns);
+		this.precision = precision;
+		this.degreeMode = degreeMode;
+		budget = EvaluationBudget.DEFAULT;
+	}
+
+	private BatchEvaluator(BatchEvaluator other, EvaluationBudget budget) {
+		engine = other.engine;
+		columns = other.columns;
+		plan = other.plan;
+		precision = other.precision;
+		degreeMode = other.degreeMode;
+		this.budget = budget;
+	}
+
+	/**
+	 * @param budget the limits of the evaluation of each row (a row that goes over it is an error)
+	 * @return an evaluator of the same expression (without compiling it again) with this budget
+	 */
+	public BatchEvaluator withBudget(EvaluationBudget budget) {
+		if (budget == null) {
+			throw new IllegalArgumentException("budget can't be null");
+		}
+		return new BatchEvaluator(this, budget);
+	}
+
+	/**
+	 * Evaluates the rows of binary columns
+	 * @param inputs one file per column, in the order of the column names, all with the same number of rows
+	 * @param output the file for the results, replaced if it exists
+	 * @return the number of rows whose result is an error (NaN in the output)
+	 * @throws IOException if a file can't be read or written
+	 * @throws IllegalArgumentException if the inputs don't match the columns
+	 */
+	public long evaluateBinary(Path[] inputs, Path output) throws IOException {
+		if (inputs.length != columns.length) {
+			throw new IllegalArgumentException("Expected " + columns.length + " input files");
+		}
+		var channels = new FileChannel[inputs.length];
+		try {
+			long rows = -1;
+			for (int i = 0; i < inputs.length; i++) {
+				channels[i] = FileChannel.open(inputs[i], StandardOpenOption.READ);
+				long size = channels[i].size();
+				if (size % Double.BYTES != 0 || (rows >= 0 && size / Double.BYTES != rows)) {
+					throw new IllegalArgumentException("Column " + columns[i] + " doesn't have the same number of doubles as the others");
+				}
+				rows = size / Double.BYTES;
+			}
+			long numRows = Math.max(rows, 0);
+			var errors = new LongAdder();
+			try (var out = openOutput(output, numRows)) {
+				forEachChunk((numRows + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK, chunk -> {
+					long first = chunk * ROWS_PER_CHUNK;
+					int n = (int) Math.min(ROWS_PER_CHUNK, numRows - first);
+					var in = new MappedByteBuffer[channels.length];
+					for (int i = 0; i < channels.length; i++) {
+						in[i] = map(channels[i], FileChannel.MapMode.READ_ONLY, first * Double.BYTES, n * Double.BYTES);
+					}
+					var results = map(out, FileChannel.MapMode.READ_WRITE, first * Double.BYTES, n * Double.BYTES);
+					var row = new Row();
+					for (int r = 0; r < n; r++) {
+						for (int i = 0; i < in.length; i++) {
+							row.setDouble(i, in[i].getDouble(r * Double.BYTES));
+						}
+						results.putDouble(r * Double.BYTES, row.evaluate(errors));
+					}
+				});
+			}
+			return errors.sum();
+		} finally {
+			for (var channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the rows of a CSV file. Its first line names the columns, separated by commas,
+	 * the columns that aren't used by the expression can hold anything without commas
+	 * @param input the CSV file
+	 * @param output the file for the results, replaced if it exists
+	 * @return the number of rows whose result is an error (NaN in the output), including the numbers that can't be read
+	 * @throws IOException if a file can't be read or written, or a line is longer than 1 MiB
+	 * @throws IllegalArgumentException if a column is missing from the first line
+	 */
+	public long evaluateCsv(Path input, Path output) throws IOException {
+		try (var in = FileChannel.open(input, StandardOpenOption.READ)) {
+			long size = in.size();
+			var header = map(in, FileChannel.MapMode.READ_ONLY, 0, (int) Math.min(size, MAX_LINE));
+			int headerEnd = lineEnd(header, 0, size);
+			int[] slots = headerSlots(header, headerEnd);
+			long dataStart = Math.min(size, headerEnd + 1L);
+			long chunks = (size - dataStart + BYTES_PER_CHUNK - 1) / BYTES_PER_CHUNK;
+			//the rows in each chunk are counted first, so each chunk knows where its results go
+			long[] firstRows = new long[(int) chunks + 1];
+			forEachChunk(chunks, chunk -> {
+				long start = dataStart + chunk * BYTES_PER_CHUNK;
+				long end = Math.min(size, start + BYTES_PER_CHUNK);
+				long from = start == dataStart ? start : start - 1;
+				var buf = map(in, FileChannel.MapMode.READ_ONLY, from, (int) (end - from));
+				int count = 0;
+				for (int p = (int) (start - from); p < end - from; p++) {
+					if (isLineStart(buf, p, from + p == dataStart)) {
+						count++;
+					}
+				}
+				firstRows[(int) chunk + 1] = count;
+			});
+			for (int i = 1; i < firstRows.length; i++) {
+				firstRows[i] += firstRows[i - 1];
+			}
+			long rows = firstRows[(int) chunks];
+			var errors = new LongAdder();
+			try (var out = openOutput(output, rows)) {
+				forEachChunk(chunks, chunk -> {
+					long start = dataStart + chunk * BYTES_PER_CHUNK;
+					long end = Math.min(size, start + BYTES_PER_CHUNK);
+					long from = start == dataStart ? start : start - 1;
+					long to = Math.min(size, end + MAX_LINE);
+					var buf = map(in, FileChannel.MapMode.READ_ONLY, from, (int) (to - from));
+					long first = firstRows[(int) chunk];
+					int n = (int) (firstRows[(int) chunk + 1] - first);
+					var results = map(out, FileChannel.MapMode.READ_WRITE, first * Double.BYTES, n * Double.BYTES);
+					var row = new Row();
+					int r = 0;
+					for (int p = (int) (start - from); p < end - from; p++) {
+						if (!isLineStart(buf, p, from + p == dataStart)) {
+							continue;
+						}
+						int lineEnd = lineEnd(buf, p, size - from);
+						double res = row.readCsv(buf, p, lineEnd, slots) ? row.evaluate(errors) : error(errors);
+						results.putDouble(r++ * Double.BYTES, res);
+						p = lineEnd;
+					}
+				});
+			}
+			return errors.sum();
+		}
+	}
+
+	/**
+	 * Finds the slot of each field of the CSV header
+	 * @return for each field index, the variable slot (0 if no column of the expression has that name)
+	 */
+	private int[] headerSlots(MappedByteBuffer header, int headerEnd) {
+		var names = new StringBuilder();
+		for (int p = 0; p < headerEnd; p++) {
+			names.append((char) (header.get(p) & 0xff));
+		}
+		String[] fields = names.toString().split(",", -1);
+		int[] slots = new int[fields.length];
+		for (int i = 0; i < columns.length; i++) {
+			boolean found = false;
+			for (int f = 0; f < fields.length; f++) {
+				if (fields[f].trim().equals(columns[i])) {
+					slots[f] = CompiledExpression.ANS + 1 + i;
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				throw new IllegalArgumentException("No CSV column named " + columns[i]);
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * @param first true if p is where the data starts
+	 * @return true if a line that isn't empty starts at p
+	 */
+	private static boolean isLineStart(MappedByteBuffer buf, int p, boolean first) {
+		if (!first && buf.get(p - 1) != '\n') {
+			return false;
+		}
+		byte c = buf.get(p);
+		return c != '\n' && c != '\r';
+	}
+
+	/**
+	 * @param size the size of the file, from the start of buf
+	 * @return the index of the '\n' ending the line that starts at p (or of the end of the file)
+	 * @throws IOException if the line doesn't fit in buf
+	 */
+	private static int lineEnd(MappedByteBuffer buf, int p, long size) throws IOException {
+		int limit = buf.limit();
+		while (p < limit && buf.get(p) != '\n') {
+			p++;
+		}
+		if (p == limit && limit < size) {
+			throw new IOException("CSV line longer than " + MAX_LINE + " bytes");
+		}
+		return p;
+	}
+
+	private static FileChannel openOutput(Path output, long rows) throws IOException {
+		try (var file = new RandomAccessFile(output.toFile(), "rw")) {
+			file.setLength(rows * Double.BYTES);
+		}
+		return FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, int size) throws IOException {
+		var buf = channel.map(mode, position, size);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
+	private static double error(LongAdder errors) {
+		errors.increment();
+		return Double.NaN;
+	}
+
+	/**
+	 * Work done on one chunk of rows
+	 */
+	private interface ChunkJob {
+		void run(long chunk) throws IOException;
+	}
+
+	/**
+	 * Runs a job on every chunk, in parallel, and waits for all of them
+	 * @throws IOException the first one thrown by a job
+	 */
+	private static void forEachChunk(long chunks, ChunkJob job) throws IOException {
+		if (chunks == 0) {
+			return;
+		}
+		try {
+			ForkJoinPool.commonPool().invoke(new Chunks(0, chunks, job));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Splits a range of chunks in halves until there is one per task
+	 */
+	@SuppressWarnings("serial") //a ForkJoinTask is serializable, this one is never serialized
+	private static final class Chunks extends RecursiveAction {
+
+		private final long from;
+		private final long to;
+		private final ChunkJob job;
+
+		Chunks(long from, long to, ChunkJob job) {
+			this.from = from;
+			this.to = to;
+			this.job = job;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				long mid = (from + to) >>> 1;
+				invokeAll(new Chunks(from, mid, job), new Chunks(mid, to, job));
+				return;
+			}
+			try {
+				job.run(from);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * The variables of the row being evaluated by one task, with what is needed to evaluate them again (for each slot:
+	 * the double for DoubleEvaluator, and where to get the exact value if it escalates)
+	 */
+	private final class Row {
+
+		private final DoubleEvaluator fast;
+		private final MathContext mc;
+		private final double[] values;
+		private final double[] errors;
+		private final double[] scales;
+		private final BigDecimal[] exact;
+		private final boolean[] fromText; //true if the exact value is the text of the field, false if it's the double
+		private final int[] fieldStart;
+		private final int[] fieldEnd;
+		private MappedByteBuffer text;
+		private boolean usable; //false if a value couldn't be read as a usable double
+		private char[] digits;
+
+		Row() {
+			int slots = columns.length + 1;
+			fast = precision <= DoubleEvaluator.MAX_DIGITS ? new DoubleEvaluator(plan, degreeMode, precision) : null;
+			mc = new MathContext(precision, RoundingMode.HALF_EVEN);
+			values = new double[slots];
+			errors = new double[slots];
+			scales = new double[slots];
+			exact = new BigDecimal[slots];
+			exact[CompiledExpression.ANS] = BigDecimal.ZERO;
+			fromText = new boolean[slots];
+			fieldStart = new int[slots];
+			fieldEnd = new int[slots];
+			digits = new char[32];
+			usable = true;
+		}
+
+		/**
+		 * Sets a column to a double, taken as its exact value
+		 * @param column index of the column
+		 */
+		void setDouble(int column, double val) {
+			int slot = CompiledExpression.ANS + 1 + column;
+			values[slot] = val;
+			errors[slot] = 0;
+			scales[slot] = exactScale(val);
+			fromText[slot] = false;
+			if (column == 0) {
+				usable = true;
+			}
+			usable &= DoubleEvaluator.isUsable(val);
+		}
+
+		/**
+		 * Reads the columns from a CSV line
+		 * @param slots the slot of each field (see headerSlots)
+		 * @return false if a column is missing
+		 */
+		boolean readCsv(MappedByteBuffer buf, int start, int end, int[] slots) {
+			text = buf;
+			usable = true;
+			int found = 0;
+			int field = 0;
+			for (int p = start; field < slots.length; field++) {
+				int comma = p;
+				while (comma < end && buf.get(comma) != ',') {
+					comma++;
+				}
+				int slot = slots[field];
+				if (slot != 0) {
+					int s = p;
+					int e = comma;
+					while (s < e && buf.get(s) == ' ') {
+						s++;
+					}
+					while (e > s && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\r')) {
+						e--;
+					}
+					fieldStart[slot] = s;
+					fieldEnd[slot] = e;
+					fromText[slot] = true;
+					usable &= parseDouble(slot, s, e);
+					found++;
+				}
+				if (comma == end) {
+					break;
+				}
+				p = comma + 1;
+			}
+			return found == columns.length;
+		}
+
+		/**
+		 * Reads a decimal number as a double if it's exact or one rounding away: at most 18 digits and a power of ten
+		 * that is an exact double, which covers nearly every number written by a program
+		 * @return false if the number has to be read as a BigDecimal
+		 */
+		private boolean parseDouble(int slot, int start, int end) {
+			int p = start;
+			boolean negative = p < end && text.get(p) == '-';
+			if (p < end && (text.get(p) == '-' || text.get(p) == '+')) {
+				p++;
+			}
+			long unscaled = 0;
+			int numDigits = 0;
+			int scale = 0;
+			boolean any = false;
+			boolean point = false;
+			for (; p < end; p++) {
+				byte c = text.get(p);
+				if (c >= '0' && c <= '9') {
+					any = true;
+					if (unscaled != 0 || c != '0') { //leading zeros aren't digits
+						if (++numDigits > 18) {
+							return false;
+						}
+						unscaled = unscaled * 10 + (c - '0');
+					}
+					if (point) {
+						scale++;
+					}
+				} else if (c == '.' && !point) {
+					point = true;
+				} else {
+					break;
+				}
+			}
+			if (!any) {
+				return false;
+			}
+			if (p < end && (text.get(p) == 'e' || text.get(p) == 'E')) {
+				p++;
+				boolean negativeExp = p < end && text.get(p) == '-';
+				if (p < end && (text.get(p) == '-' || text.get(p) == '+')) {
+					p++;
+				}
+				int exp = 0;
+				int expStart = p;
+				for (; p < end && p - expStart < 4 && text.get(p) >= '0' && text.get(p) <= '9'; p++) {
+					exp = exp * 10 + (text.get(p) - '0');
+				}
+				if (p == expStart) {
+					return false;
+				}
+				scale -= negativeExp ? -exp : exp;
+			}
+			if (p != end || unscaled >= 1L << 53 || scale < -22 || scale > 22) {
+				return false;
+			}
+			//one correctly rounded operation on exact doubles
+			double dbl = scale >= 0 ? unscaled / DoubleEvaluator.POWERS_OF_TEN[scale] : unscaled * DoubleEvaluator.POWERS_OF_TEN[-scale];
+			values[slot] = negative ? -dbl : dbl;
+			errors[slot] = DoubleEvaluator.representationError(scale, dbl);
+			scales[slot] = Math.abs(scale);
+			return DoubleEvaluator.isUsable(dbl);
+		}
+
+		/**
+		 * Evaluates the row
+		 * @param errorCount incremented if the result is an error
+		 * @return the result rounded to precision, as a double, or NaN
+		 */
+		double evaluate(LongAdder errorCount) {
+			if (fast != null && usable) {
+				int errcode = fast.run(values, errors, scales);
+				if (errcode == 0) {
+					BigDecimal res = fast.result(mc);
+					if (res != null) {
+						return res.doubleValue();
+					}
+				} else if (errcode != DoubleEvaluator.ESCALATE) {
+					return error(errorCount);
+				}
+			}
+			for (int slot = CompiledExpression.ANS + 1; slot < exact.length; slot++) {
+				if (!fromText[slot]) {
+					exact[slot] = new BigDecimal(values[slot]);
+				} else if ((exact[slot] = parseBigDecimal(fieldStart[slot], fieldEnd[slot])) == null) {
+					return error(errorCount);
+				}
+			}
+			try {
+				return engine.evaluateExact(plan, exact, precision, degreeMode, budget).doubleValue();
+			} catch (CalculatorException e) {
+				return error(errorCount);
+			}
+		}
+
+		/**
+		 * @return the number in the text, or null if it isn't one
+		 */
+		private BigDecimal parseBigDecimal(int start, int end) {
+			int n = end - start;
+			if (n > digits.length) {
+				digits = new char[Math.max(n, digits.length * 2)];
+			}
+			for (int i = 0; i < n; i++) {
+				digits[i] = (char) (text.get(start + i) & 0xff);
+			}
+			try {
+				return new BigDecimal(digits, 0, n);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the scale of new BigDecimal(val), without building it: the number of binary digits after the point
+	 */
+	private static double exactScale(double val) {
+		if (val == 0 || !Double.isFinite(val)) {
+			return 0;
+		}
+		long bits = Double.doubleToRawLongBits(val);
+		int exponent = Math.getExponent(val);
+		long mantissa = exponent < Double.MIN_EXPONENT ? bits & 0xfffffffffffffL : (bits & 0xfffffffffffffL) | 1L << 52;
+		int lowest = Math.max(exponent, Double.MIN_EXPONENT) - 52 + Long.numberOfTrailingZeros(mantissa); //value of the last 1 bit is 2^lowest
+		return Math.max(0, -lowest);
+	}
+}
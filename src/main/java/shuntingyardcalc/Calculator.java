@@ -5,7 +5,8 @@
 package shuntingyardcalc;
 
 import java.util.Stack;
-import java.util.HashMap; 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.math.RoundingMode;
 import java.math.BigDecimal;
 import java.math.MathContext;
@@ -23,173 +24,151 @@ import java.math.MathContext;
  * -Because of this, when an error occurs, the calculator can be certain that the previous request caused it, and doesn't allow it. 
  * - When the user wants an answer, the calculator just tries to append closing brackets 
  * and checks for errors, because they are equivalent to the algorithm 
- *
+ * 
+ * A long request (like 9^99999 at 1337 digits) can be stopped by interrupting the thread that runs it: 
+ * it gives the "Cancelled!" message and is not appended, like a request with an error.
+ * 
+ * In exact mode, divisions give fractions instead of rounding (see Rational), so 1/3*3 is exactly 1: a result is
+ * only rounded to a decimal when it's displayed, or when it goes through sqrt, a trig function or a fraction power.
  */
 public class Calculator {
 
-	/*
-		Rule for numerical values:
-		We can append a numerical value only if the number of operations in the stack with 2 inputs are equal to the current number of elements in valStack.  
-		(This is checked for each request)
-		- Also, This condition must be fufilled before evaluating.
-		This means that each operation must have the right number of parameters except one, which will be satisfied by appending a digit.
-	 */
-	//Enumeraotr for operators. Params: Precidence, is left to right, number of inputs
-	private enum Operator {
-		OPEN_BRAC(Integer.MAX_VALUE, true, 1),
-		/*
-		Open bracket "(" is allowed to be appended anywhere. 
-		When not next to an operator, or next to a closed bracket, multiplication is implied:
-			a(b) = a*(b) or (4)(5) = 4 * 5
-		This also means weak grouping is implied, i.e.
-			a/b(c) = c*a/b
-		This rule translates to pushing a multiplication operation before the operator only if 
-
-
-		We push open brackets to the stack as usual but no other operator can "pop" brackets out except for closing brackets. (This ensures brackets are prioritized in order of operations)
-
-		Mismatched Brackets:
-			- empty brackets "()" are not allowed
-			- Missing brackets are fixed automatically
-		 */
-		CLOSE_BRAC(Integer.MIN_VALUE, false, 0),
-		/*
-		Closed brackets will cause all operators in the stack to be popped and evaluated, until the first open bracket it sees, which will cause the pair to be removed.
-		For valid syntax, the number of operators which need 2 inputs must be equal to one less than the number of variables in varStack, and the varStack needs at least 1 element.
-		See Open Bracket for more.
-		 */
-		DEC(5, false, 2),
-		/*
-		The generic rule for operators with 2 numInputs are described here:
-			Can add to operator stack only if, when added to the operator stack, the number of operators in the stack which take 2 inputs will be equal to the valStack's size. 
-			Since we enforce this rule for each request, this rule is enough to ensure the entire request is valid.
-			Also, such an operator must not be "trailing" (which is handled by brackets or the final evaluation)
-
-		Decimals are treated as regular operators. 
-		However, Decimals in particular may not be consecutive in the operator stack (causing more than 1 decimal per number), and can only be attatcked to a digit, i.e. (3).5 and 3.(5)is invalid
-		 */
-		ADD(1, false, 2),
-		/*
-		Follows the generic rule for 2 inputs (see decimal)
-		 */
-		SUB(1, false, 2),
-		/*
-			Follows the generic rule for 2 inputs (see decimal)
-			Converted to negative sign if a request to append it violates the rule.
-		 */
-		MULT(2, false, 2),
-		/*
-			Follows the generic rule for 2 inputs (see decimal)
-		 */
-		DIV(2, false, 2),
-		/*
-			Follows the generic rule for 2 inputs (see decimal)
-			Division by zero is handled when the attempted valStack reduction fails
-		 */
-		SIN(4, true, 1),
-		/*
-		The generic rule for functions:
-			They are evaluated left to right if they have the same precidence: a^b^c != (a^b)^c
-			We treat order dependent operators as having higher precidence than themselves, so the rightmost operation is always evaluated first
-
-		The generic rule for functions with one input:
-			We can append them to the input without restrictions
-			They cannot be missing an input value (handled by brackets or the final evaluation)
-			When appended after a value, e.g. 2sin(4), interpret as implied brackets, i.e. 2(sin(4)) (See brackets section for details)
-		 */
-		COS(4, true, 1),
-		//Follows the generic rule for functions with one input (see sine)
-		TAN(4, true, 1),
-		//Follows the generic rule for functions with one input (see sine)
-		SQRT(4, true, 1),
-		//Follows the generic rule for functions with one input (see sine)
-		NEG(5, true, 1),
-		/*
-		A negative sign is treated as a function with one variable: f(x) = -x.
-		therefore it is treated as order dependent and has high precidence because the negative sign is strongly grouped with its value, just like digits are strongly grouped with each other.
-		Interpret a "-" as a negation if and only if the request to append "-" would result in a syntax error.
-		This works becuase trailing "-" (which is invalid syntax) is valid until the user tries to use another operator, like (5-*4)
-		This will be caught while appending the other operator.
-		a---b is treated as a-(-(-b))
-		 */
-		POW(3, true, 2),
-		//Follows the generic rule for functions, and the generic rule for operators with 2 inputs (see sine and decimal).
-		INVALID(0, false, 0);
-
-		public final int precidence; 
-		public final boolean isLeftToRight;
-		public final int numInputs;
-
-		/**
-		 * Constructor for Operators Sets the precidence, isLeftToRight,
-		 * numInputs respectively
-		 *
-		 * @param p
-		 * @param b
-		 * @param n
-		 */
-		private Operator(int p, boolean b, int n) {
-			isLeftToRight = b;
-			precidence = p;	
-			numInputs = n; 
-		}
-	}
-
 	private boolean recalculateStack;
-	private boolean degreeMode; 
-	public int precision; //display precision (doesn't affect internal results, so accessable everywhere)
-
-	private final HashMap<String, BigDecimal> variableMap; //map for variables //takes in the string rep. and returns the value.
-	private final HashMap<String, Operator> opMap; //map for operators, takes in its string rep. and returns the corresponding op.
+	private String recalculateCause; //what set recalculateStack, for the Replay event (see CalculatorEvents)
+	private int recalculateFrom; //first token of displayStack to append again when recalculateStack is true, the ones before are still valid
+	private boolean replaying; //true while the display stack is being appended again to rebuild the other stacks
+	public int precision; //display precision (internal results are computed with a few more digits, and again with more if that isn't enough)
+	//(raising it makes the next append or evaluation compute the stacks again, with enough digits)
+
+	private final CalculatorEngine engine; //operators, constants and compiled expressions, shared with other calculators
+	private BigDecimal[] variables; //value of each variable slot of the engine, Ans is slot 0, null if it has no value
+	private Rational exactAns; //Ans as a fraction, if the last result was one (exact mode), null otherwise
+	private EvaluationBudget budget; //limits of each request (an append, or the evaluation), replays included
 	
 	
-	private Stack<BigDecimal> valStack; //stack for values
-	private Stack<Operator> operatorStack; //stack for operators
+	private final ShuntingYard yard; //stack for values, stack for operators, and the angle mode
 	private Stack<String> displayStack; //stack for displayed value
-	//valSurplus: num available values - operators with 2 inputs. Should be updated when adding values to the stack
-	private int valSurplus; 
+	private final StringBuilder display; //the tokens of displayStack, joined (kept up to date with every change, see DisplayListener)
+	private final ArrayList<DisplayListener> displayListeners; 
+	private int[] tokenKinds; //for each token in displayStack, what it is (Lexer.classify), so it's never classified again
+	//checkpoints: for each token in displayStack, the state from before it was appended: valStack mark, operatorStack mark, valSurplus
+	//(3 ints per token, so that popping a token rolls the stacks back instead of replaying the expression)
+	private int[] checkpoints; 
 
 	/**
 	 * Constructor for the calculator, initializes all of its variables
-	 *
+	 * Uses the default engine, shared by every calculator created this way
 	 */
 	public Calculator() {
-		variableMap = new HashMap<>();
-		opMap = new HashMap<>(); 
-		valStack = new Stack<>(); 
-		operatorStack = new Stack<>(); 
+		this(CalculatorEngine.getDefault()); 
+	}
+
+	/**
+	 * Constructor for the calculator, initializes all of its variables
+	 * @param engine the engine to share with other calculators and sessions
+	 */
+	public Calculator(CalculatorEngine engine) {
+		this.engine = engine; 
+		variables = new BigDecimal[8]; 
+		variables[CompiledExpression.ANS] = BigDecimal.ZERO; 
+		yard = new ShuntingYard(); 
 		displayStack = new Stack<>(); 
+		display = new StringBuilder(); 
+		displayListeners = new ArrayList<>(); 
+		checkpoints = new int[48]; 
+		tokenKinds = new int[16]; 
 		recalculateStack = false; 
 		precision = 10; 
-		degreeMode = false; 
-		valSurplus = 0; 
+		budget = EvaluationBudget.DEFAULT; 
+	}
 
-		opMap.put("+", Operator.ADD);
-		opMap.put("(", Operator.OPEN_BRAC);
-		opMap.put(")", Operator.CLOSE_BRAC);
-		opMap.put(".", Operator.DEC);
-		opMap.put("-", Operator.SUB);
-		opMap.put("*", Operator.MULT); 
-		opMap.put("/", Operator.DIV); 
-		opMap.put("sin", Operator.SIN); 
-		opMap.put("cos", Operator.COS);
-		opMap.put("tan", Operator.TAN); 
-		opMap.put("sqrt", Operator.SQRT); 
-		opMap.put("neg", Operator.NEG); 
-		opMap.put("^", Operator.POW);
 
-		variableMap.put("Ans", BigDecimal.valueOf(0)); 
-		variableMap.put("π", BigDecimal.valueOf(Math.PI)); 
-		variableMap.put("e", BigDecimal.valueOf(Math.E));
+	/** Binds a variable, declaring it in the engine if it's a new name
+	 * preconditions: none
+	 * postconditions: recalculateStack is true if something is displayed, so a displayed variable gets its new value
+	 * @param name the name of the variable, which can then be appended like a constant
+	 * @param value its value
+	 * @return the slot of the variable, for binding it again without the name
+	 * @throws IllegalArgumentException if the name can't be used for a variable
+	 */
+	public int setVariable(String name, BigDecimal value) {
+		int slot = engine.declareVariable(name); 
+		setVariable(slot, value); 
+		return slot; 
 	}
 
+	/** Binds a variable by its slot
+	 * preconditions: none
+	 * postconditions: recalculateStack is true if something is displayed, so a displayed variable gets its new value
+	 * @param slot the slot, from setVariable or CalculatorEngine.declareVariable
+	 * @param value its value
+	 */
+	public void setVariable(int slot, BigDecimal value) {
+		if (value == null) {
+			throw new IllegalArgumentException("A variable can't be set to null"); 
+		}
+		if (slot >= variables.length) {
+			variables = Arrays.copyOf(variables, Math.max(slot + 1, variables.length * 2)); 
+		}
+		variables[slot] = value; 
+		if (slot == CompiledExpression.ANS) {
+			exactAns = null; 
+		}
+		if (!displayStack.empty()) {
+			recalculateStack = true; 
+			recalculateCause = "variable"; 
+			recalculateFrom = 0; 
+		}
+	}
 
 	/** Gets the degreemode value
 	 * pre/post conditions: none
 	 * @return the value of degreeMode
 	 */
 	public boolean getDegreeMode() {
-		return degreeMode; 
+		return yard.isDegreeMode(); 
+	}
+
+	/** Gets the exact mode
+	 * pre/post conditions: none
+	 * @return true if divisions give exact fractions
+	 */
+	public boolean getExactMode() {
+		return yard.isExactMode(); 
+	}
+
+	/** Sets the exact mode: divisions give fractions, which + - * and integer powers keep exact, and which are only
+	 * divided out to the display precision when the result is evaluated
+	 * preconditions: none 
+	 * postconditions: recalculateStack is true, so the values already on the stacks are computed in the new mode
+	 * @param exact true for exact fractions, false to round every division to the working precision
+	 */
+	public void setExactMode(boolean exact) {
+		if (exact != yard.isExactMode()) {
+			recalculateStack = true; 
+			recalculateCause = "exact mode"; 
+			recalculateFrom = 0; 
+			yard.setExactMode(exact); 
+		}
+	}
+
+	/** Gets the limits of each request
+	 * pre/post conditions: none
+	 * @return the budget
+	 */
+	public EvaluationBudget getBudget() {
+		return budget; 
+	}
+
+	/** Sets the limits of each request: an append or an evaluation that would go over them gives the "Too Large to Compute!" message
+	 * pre/post conditions: none
+	 * @param budget the budget
+	 */
+	public void setBudget(EvaluationBudget budget) {
+		if (budget == null) {
+			throw new IllegalArgumentException("budget can't be null"); 
+		}
+		this.budget = budget; 
 	}
 
 	/**
@@ -199,374 +178,89 @@ public class Calculator {
 	 * @return Returns the display string to be shown to the user
 	 */
 	public String getDisplayString() {
-		String displayString = "";
-		for (String s : displayStack) {
-			displayString += s;
-		}
-		return displayString;
+		return display.toString();
 	}
 
 	/**
-	 * Toggles the angle measure (rad/deg) 
-	 * preconditions: none 
-	 * postconditions: recalculateStack must be true, otherwise previous
-	 * trigonometric functions will still be in the previous mode
+	 * Registers a listener for the changes to the display string, so it doesn't have to be read again after every request
+	 * @param listener the listener
 	 */
-	public void toggleAngleMeasure() {
-		recalculateStack = true; 
-		degreeMode = !degreeMode; 
+	public void addDisplayListener(DisplayListener listener) {
+		displayListeners.add(listener); 
 	}
 
 	/**
-	 * Applies an operation of an operator to a stack of values. Pops op.numInputs values from the stack and applies it based on bottom->top order
-	 * Precondition: vals must have at least op.numInputs elements, vals must be a temporary stack and not affect internal state.
-	 * 				-op should be a valid operator, and not op.INVALID
-	 * 				-decimal operator should be allowed to act as addition, as the decimal place should be taken care of prior.
-	 * Postcondition: No side effects other than to vals
-	 * @param op The operator
-	 * @param vals The stack of values
-	 * @return Returns an error code: 
-	 * 3: unrecognized op. (should never happen)
-	 * 2: Math error
-	 * 1: Undefined
-	 */
-	private int applyOperation(Operator op, Stack<BigDecimal> vals) {
-		BigDecimal first, second, ret; //declare variables for operands and result
-		double dbl; //declare variable for double precision operations
-		BigDecimal fullCircle = degreeMode ? BigDecimal.valueOf(360) : BigDecimal.valueOf(Math.PI * 2);
-		BigDecimal halfCircle = fullCircle.divide(BigDecimal.valueOf(2)); 
-
-		//internal precision should be indep. of display precision, arbitrarily set to 1337
-		MathContext mc = new MathContext(1337, RoundingMode.HALF_EVEN); 
-		switch (op) {
-			case MULT: 
-				first = vals.pop(); 
-				second = vals.pop(); 
-				ret = first.multiply(second);
-				if (ret.compareTo(new BigDecimal("1e99999")) > 0) {
-					return 2; //return error code for overflow
-				}
-				vals.push(ret); 
-				break;
-			case DIV:
-				first = vals.pop(); 
-				second = vals.pop(); 
-				try {
-					ret = second.divide(first, mc); 
-				} catch (ArithmeticException ex) {
-					return 1; //return error code for division by zero (Undef.)
-				}
-				if (ret.compareTo(new BigDecimal("1e99999")) > 0) {
-					return 2; //return error code for overflow (Math err.)
-				}
-				vals.push(ret); 
-				break;
-			case DEC: //decimals are treated as addition because the "0." is already accounted for in appendOperator
-			case ADD: 
-				vals.push(vals.pop().add(vals.pop())); 
-				break;//breaks;
-			case SUB: //(we negate because the order is bottom->top, and we subtracted in top->bottom order)
-				vals.push(vals.pop().subtract(vals.pop()).negate());
-				break;
-			case NEG: 
-				vals.push(vals.pop().negate());
-				break;
-			case POW:
-				first = vals.pop(); 
-				second = vals.pop();
-				if (second.compareTo(new BigDecimal("1e5000")) > 0) {
-					return 2; //return error code for overflow(Math err.)
-				}
-				if (second.toString().length() * first.longValue() > 99999) {
-					return 2; //return error code for overflow(Math err.)
-				}
-				if (first.compareTo(BigDecimal.ZERO) >= 0 && first.stripTrailingZeros().scale() <= 0) {
-					if (second.compareTo(BigDecimal.ZERO) == 0 && first.compareTo(BigDecimal.ZERO) == 0) {
-						return 1; //return error code for 0^0 (undef.)
-					}
-					try {
-						//bigdecimal only supports exponentiation with pos. integer powers
-						ret = second.pow(first.intValueExact()); //calculate power with integer exponent
-					} catch (ArithmeticException ex) { 
-						return 2; //return error code overflow (Math err.)
-					}
-				} else { //if exponent is not a non-negative integer (bigdecimal can't use it)
-					dbl = Math.pow(second.doubleValue(), first.doubleValue());
-					if (!Double.isFinite(dbl)) {
-						return 2; //return error code for overflow (Math err.)
-					}
-					ret = new BigDecimal(dbl);
-				}
-				vals.push(ret); 
-				break;
-			case SQRT:
-				if (vals.peek().compareTo(BigDecimal.ZERO) < 0) {
-					return 2; //return error code for square root of negative number (Math error)
-				}
-				vals.push(vals.pop().sqrt(mc));
-				break;
-			case SIN: {
-				//for trig. operators, rememeber parity: sine, tan -> odd, cos -> even, and sin,cos,tan are periodic for a full circle.
-				//Then we can ignore the signs and take the angle % halfCircle, 
-				//by symmetry, calculate the unsigned value (more accurate since java.Math class is double precision only), and put the signs later.
-				//This means that some operations like sine(999999999999pi/2) are much more accurate
-				first = vals.pop();
-				boolean negate = first.compareTo(BigDecimal.ZERO) < 0; //negate if operand is negative (odd parity)
-				if (negate) {
-					first = first.negate(); 
-				}
-				first = first.remainder(fullCircle); //get the equivalent angle within full circle
-				if (first.compareTo(halfCircle) > 0) { //if angle is in the second half of the circle
-					negate = !negate;
-				}
-				dbl = first.remainder(halfCircle).doubleValue();
-				if (degreeMode) {
-					dbl *= Math.PI / 180; //convert angle to radians
-				}
-				ret = new BigDecimal(Math.sin(dbl));
-				if (negate) {
-					ret = ret.negate();
-				}
-				vals.push(ret);
-				break;
-			}
-			case COS: { //cosine operator, exactly the same as sine, but shifted because sine(90-a) = cos(a)
-				first = halfCircle.divide(BigDecimal.valueOf(2)).subtract(vals.pop()); //shift the angle for cosine
-				boolean negate = first.compareTo(BigDecimal.ZERO) < 0; //negate if operand is negative (odd parity)
-				if (negate) { 
-					first = first.negate();
-				}
-				first = first.remainder(fullCircle); //get the equivalent angle within full circle
-				if (first.compareTo(halfCircle) > 0) { //if angle is in the second half of the circle
-					negate = !negate; 
-				}
-				dbl = first.remainder(halfCircle).doubleValue();
-				if (degreeMode) {
-					dbl *= Math.PI / 180; //convert angle to radians
-				}
-				ret = new BigDecimal(Math.sin(dbl));
-				if (negate) { 
-					ret = ret.negate();
-				}
-				vals.push(ret);
-				break;
-			}
-			case TAN: {
-				//odd parity reduction:
-				first = vals.pop();
-				boolean negate = first.compareTo(BigDecimal.ZERO) < 0; //negate if operand is negative (odd parity)
-				if (negate) {
-					first = first.negate();
-				}
-				//unlike sine, tangent can be treated as periodic on a half circle, so we can just take the modulo
-				dbl = first.remainder(halfCircle).doubleValue();
-				//tan calculation begins:
-				if (degreeMode) { 
-					if (dbl == 90) { //tried tangent of an undefined value (remember we reduced the angle to a half circle)
-						return 1; //return error code (Undef. error)
-					}
-					dbl *= Math.PI / 180; //convert angle to radians
-				} else if (dbl == Math.PI / 2) {// undef. value (remember we reduced the angle to a half circle)
-					return 1; //return error code (Undef. error)
-				}
+	 * @param listener a listener registered with addDisplayListener
+	 */
+	public void removeDisplayListener(DisplayListener listener) {
+		displayListeners.remove(listener); 
+	}
 
-				ret = new BigDecimal(Math.tan(dbl));
-				if (negate) {
-					ret = ret.negate();
-				}
-				vals.push(ret); 
-				break;
+	/** Inserts text in the display string and tells the listeners (unless the display is being replayed, see replay)
+	 * @param offset where to insert it
+	 * @param text the text
+	 */
+	private void displayInsert(int offset, String text) {
+		display.insert(offset, text); 
+		if (!replaying) {
+			for (var listener : displayListeners) {
+				listener.displayInserted(offset, text); 
 			}
-			default: //if unrecognized operator (should never happen)
-				return 3;
 		}
-		return 0;
 	}
 
-	/**
-	 * Gets the prefix of the operator and check current operator for correctness, necessary for correct evaluation.
-	 * Precondition: all member variables properly updated and valid, operator is a valid one
-	 * Post ocndition: no side effects
-	 * @param op the operator
-	 * @return the necessary prefix for the operator, or null if none. Ex:left bracket has a prefix of multiplication.
-	 * 			On syntax error for the current operator: Return Operator.INVALID
-	 */
-	Operator getPrefix(Operator op) {
-		//the rules here are arbitrary, but ensure a good format for the calculator, see Operator enum for details
-		switch (op) {
-			case DEC:
-				if (displayStack.isEmpty()) {
-					return Operator.INVALID;
-				}
-				if (!displayStack.peek().matches("^[0-9]+$")) {
-					return Operator.INVALID;
-				}
-				if (!operatorStack.isEmpty() && operatorStack.peek() == op) {
-					return Operator.INVALID;
-				}
-				break;
-			case CLOSE_BRAC:
-				if (displayStack.isEmpty()) {
-					return Operator.INVALID;
-				}
-				if (valSurplus == 0 || displayStack.peek().equals("(")) {
-					return Operator.INVALID;
-				}
-				break;
-			default: 
-				break;
-		}
-		switch (op.numInputs) {
-			case 1:
-				if (valSurplus == 1) {
-					return getPrefix(Operator.MULT) == null ? Operator.MULT : Operator.INVALID;
-				} else if (!operatorStack.empty() && operatorStack.peek() == Operator.DEC) {
-					return Operator.INVALID;
-				}
-				break;
-			case 2:
-				if (valSurplus == 0) {
-					return Operator.INVALID;
-				}
-				break;
-			default:
-				break; 
+	/** Removes text from the display string and tells the listeners (unless the display is being replayed, see replay)
+	 * @param offset where the text starts
+	 * @param length its number of characters
+	 */
+	private void displayRemove(int offset, int length) {
+		if (length == 0) {
+			return; 
 		}
-		return null;
-	}
-
-	/**
-	 * appends the operator to the operatorStack, and partially evaluates the stack if possible. Uses the shunting yard algorithm to do this
-	 * 
-	 * Precondition: There are no syntax / evaluation errors in the previous operatorStack, valStack, displaystack
-	 * 		-valStack is not up to date if the user is building a number
-	 * i.e. member variables are valid
-	 * 
-	 * Postcondition: There are no errors in formatting of the two stacks.
-	 * The two stacks are altered if and only if there was no error valSurplus is properly updated
-	 * i.e. member variables stay valid
-	 *
-	 * @param op the operator to append
-	 * @return the error / success code: 
-	 * -1: syntax error 
-	 * 0: Success 
-	 * 1:Undefined 
-	 * 2: Math error
-	 */
-	private int appendOperator(Operator op) {
-		var prefix = getPrefix(op);
-		if (prefix == Operator.INVALID) {
-			//subtraction should always be subtraction unless it doesn't work, then it's negation:
-			if (op == Operator.SUB && getPrefix(Operator.NEG) == null) { 
-				op = Operator.NEG; 
-				prefix = null;
-			} else {
-				return -1;
+		display.delete(offset, offset + length); 
+		if (!replaying) {
+			for (var listener : displayListeners) {
+				listener.displayRemoved(offset, length); 
 			}
 		}
-		//ensure that the currently valid member variables stay valid by working on a copy
-		var tmpOpStack = (Stack<Operator>) operatorStack.clone(); 
-		var tmpValStack = (Stack<BigDecimal>) valStack.clone();
+	}
 
-		//Push user inputted numbers to the tempvalstack, since they aren't pushed to valstack until confirmed to be finished building
-		if (!displayStack.empty() && displayStack.peek().matches("^[0-9]+$")) { 
-			String toPush = displayStack.peek();
-			if (!tmpOpStack.isEmpty() && tmpOpStack.peek() == Operator.DEC) {
-				//The decimal apply operation function is just addition with more precidence, because we scale it appropriately here
-				toPush = "0." + toPush;
-			}
-			tmpValStack.push(new BigDecimal(toPush)); 
-		}
-		//Shunting yard part of the function, operators "knock" operators off of the stack and cause them to be applied to the 
-		//value stack, if the current operator is of lower precidence. 
-		//If an operator has n inputs, then n values from the stack will be replaced with just one resulting value
-		boolean isPrefix = prefix != null;
-		var cur = isPrefix ? prefix : op;
-		while (true) {
-			if (cur == null || tmpOpStack.empty()) {
-				if (!isPrefix) break;
-				else {
-					isPrefix = false; 
-					tmpOpStack.push(prefix); //push prefix to operator stack (it is confirmed valid)
-					cur = op; 
-				}
-			}
-			var top = tmpOpStack.peek(); 
-			if (top == Operator.OPEN_BRAC) {
-				//open brackets can't be "knocked off" unless by closing bracket
-				if (cur == Operator.CLOSE_BRAC) { 
-					tmpOpStack.pop(); 
-					//prevent confusing the user, like realizing sqrt(-1) is invalid only after another request is performed
-					if (!tmpOpStack.empty() && tmpOpStack.peek().isLeftToRight && tmpOpStack.peek() != Operator.OPEN_BRAC) { 
-						int errcode = applyOperation(tmpOpStack.pop(), tmpValStack); 
-						if (errcode != 0) { 
-							return errcode; 
-						}
-					}
-				}
-				cur = null; 
-			} else if (cur.precidence <= top.precidence && (!cur.isLeftToRight)) { 
-				//we can pop the operator and evaluate it without breaking order of operations
-				int errcode = applyOperation(top, tmpValStack); 
-				if (errcode != 0) {
-					return errcode; 
-				}
-				tmpOpStack.pop(); 
-			} else { 
-				cur = null;
-			}
-		}
-		//calculation complete and valid, now update state variables
-		if (prefix != null && prefix != Operator.CLOSE_BRAC) {
-			valSurplus -= prefix.numInputs - 1; 
+	/**
+	 * Toggles the angle measure (rad/deg) 
+	 * Only the tokens from the first trigonometric function on depend on it, so only those are appended again (on the next append),
+	 * from the checkpoint before that function. An expression without one is left as is.
+	 * preconditions: none 
+	 * postconditions: recalculateStack must be true if there is a trigonometric function, otherwise it
+	 * will still be in the previous mode
+	 */
+	public void toggleAngleMeasure() {
+		yard.setDegreeMode(!yard.isDegreeMode()); 
+		int first = firstTrigToken(); 
+		if (first < 0) {
+			return; //nothing depends on the angle measure
 		}
-		if (op != Operator.CLOSE_BRAC) { 
-			valSurplus -= op.numInputs - 1;
-			tmpOpStack.push(op); 
+		if (!recalculateStack) {
+			recalculateStack = true; 
+			recalculateCause = "angle measure"; 
+			recalculateFrom = first; 
+		} else {
+			recalculateFrom = Math.min(recalculateFrom, first); 
 		}
-		operatorStack = tmpOpStack; 
-		valStack = tmpValStack; 
-		return 0;
 	}
 
-	/** Appends a constant and check for errors
-	 *precondition:
-	 * 		the constant must be a variable and not a number, like pi
-	 * 		all member variables are valid and properly checked
-	 * postcondition:
-	 * 		all member variables are valid
-	 * @param val
-	 * @return ttrue if the operation completed, false otherwise
-	 */
-	private boolean appendConstant(BigDecimal val) {
-		if (!displayStack.empty() && displayStack.peek().equals(".")) {
-			return false;
-		} else if (valSurplus != 0 && appendOperator(Operator.MULT) != 0) {
-			//check if there is surplus value and attempt to append multiplication operator: implied multiplication
-			return false;
-		}
-		valStack.push(val); 
-		valSurplus++; 
-		return true; 
-	}
-
-	/**Appends a numerical value (ex: 121) and checks for errors
-	 * precondition:
-	 * 		all member variables are valid and properly checked
-	 * 		Only called by the system (like a macro), not the GUI, because this appedns the entire number rather than a digit
-	 * postcondition:
-	 * 		all member variables stay valid
-	 * 		
-	 * @param val value to append
-	 * @return true if the operation completed, false otherwise
+	/**
+	 * @return the index in displayStack of the first sin, cos or tan token, -1 if there is none
 	 */
-	private boolean appendNumerical(String val) {
-		//check if the valsurplus is not zero and implied multiplication fails,
-		if (valSurplus != 0 && appendOperator(Operator.MULT) != 0) {
-			return false;
+	private int firstTrigToken() {
+		for (int i = 0; i < displayStack.size(); i++) {
+			if (tokenKinds[i] == Lexer.OPERATOR) {
+				Operator op = Lexer.operatorOf(displayStack.get(i)); 
+				if (op == Operator.SIN || op == Operator.COS || op == Operator.TAN) {
+					return i; 
+				}
+			}
 		}
-		valSurplus++; 
-		return true; 
+		return -1; 
 	}
 
 	/**Appends a digit and checks for errors
@@ -578,24 +272,56 @@ public class Calculator {
 	 * @return true if the operation completed, false otherwise
 	 */
 	private boolean appendDigit(String digit) {
-		if (!displayStack.empty()) {
-			if (displayStack.peek().matches("^[0-9]+$")) { 
-				String val = displayStack.pop(); 
-				//since a leading zero can be meaningless:
-				val = val.equals("0") && (operatorStack.empty() || operatorStack.peek() != Operator.DEC) ? digit : val + digit; 
-				displayStack.push(val); 
-				return true;
-			} else if (valSurplus != 0 && appendOperator(Operator.MULT) != 0) {
-				// if there are more numbers than operable, the user probably implies multiplication, ex: 3sin(a) = 3*sin(a)
-				//check if there is surplus value and attempt to append multiplication operator
-				return false; 
+		int valMark = yard.valStack.mark(); 
+		int opMark = yard.operatorStack.mark(); 
+		int surplus = yard.valSurplus; 
+		if (!displayStack.empty() && tokenKinds[displayStack.size() - 1] == Lexer.NUMBER) { 
+			String val = displayStack.pop(); 
+			//since a leading zero can be meaningless:
+			if (val.equals("0") && (yard.operatorStack.isEmpty() || yard.operatorStack.peek() != Operator.DEC)) {
+				displayRemove(display.length() - 1, 1); 
+				val = digit; 
+			} else {
+				val = val + digit; 
 			}
+			displayInsert(display.length(), digit); 
+			displayStack.push(val); 
+			yard.setPending(val, 0, val.length()); 
+			return true;
 		}
-		valSurplus++;
-		displayStack.push(digit); 
+		// if there are more numbers than operable, the user probably implies multiplication, ex: 3sin(a) = 3*sin(a)
+		if (!yard.appendNumber(digit, 0, 1)) {
+			return false; 
+		}
+		pushDisplay(digit, Lexer.NUMBER, valMark, opMark, surplus); 
 		return true; 
 	}
 
+	/** Pushes a token to the display stack along with its checkpoint
+	 * precondition: the marks and valSurplus were taken before the token was appended
+	 * postcondition: popping the token can restore the state from the checkpoint
+	 * @param s the token
+	 * @param kind what the token is (Lexer.classify)
+	 * @param valMark valStack mark from before the token
+	 * @param opMark operatorStack mark from before the token
+	 * @param surplus valSurplus from before the token
+	 */
+	private void pushDisplay(String s, int kind, int valMark, int opMark, int surplus) {
+		int i = displayStack.size() * 3; 
+		if (i == checkpoints.length) {
+			checkpoints = Arrays.copyOf(checkpoints, i * 2);
+		}
+		if (displayStack.size() == tokenKinds.length) {
+			tokenKinds = Arrays.copyOf(tokenKinds, tokenKinds.length * 2);
+		}
+		tokenKinds[displayStack.size()] = kind; 
+		displayInsert(display.length(), s); 
+		checkpoints[i] = valMark; 
+		checkpoints[i + 1] = opMark; 
+		checkpoints[i + 2] = surplus; 
+		displayStack.push(s); 
+	}
+
 	/** Clears the state of the calculator stacks, and the variables which depend on them
 	 * Precondition: none
 	 * Postcondition: all stacks are cleared and all variables in a valid state
@@ -603,12 +329,97 @@ public class Calculator {
 	 */
 	private void clearState() {
 		displayStack.clear();
-		valStack.clear(); 
-		valSurplus = 0; 
-		operatorStack.clear();
+		displayRemove(0, display.length()); 
+		yard.clear(); 
+		yard.setPrecision(precision + ShuntingYard.GUARD_DIGITS); 
 		recalculateStack = false; 
 	}
 
+	/** Appends the tokens of the display stack again, from a token on: the stacks are rolled back to the checkpoint of that
+	 * token, or cleared if it's the first one or the working precision changes
+	 * The display listeners are only told about it if a token fails, since the display is otherwise the same
+	 * Precondition: the display stack was valid, and the checkpoints up to from are valid if from isn't 0
+	 * Postcondition: all member variables are valid, and recalculateStack is false unless the thread was interrupted
+	 * (then the display stack is put back as it was, to be replayed on the next append)
+	 * @param workingPrecision the working precision to evaluate with
+	 * @param from the index of the first token to append again, 0 for all of them
+	 * @param cause why it's replayed, for the Replay event (see CalculatorEvents)
+	 * @return the error message of the first token that failed, or null if none did
+	 */
+	private String replay(int workingPrecision, int from, String cause) {
+		if (yard.getPrecision() != workingPrecision) {
+			from = 0; 
+		}
+		CalculatorMetrics.get().recordReplay(); 
+		var event = new CalculatorEvents.Replay(); 
+		event.begin(); 
+		String msg = replay(workingPrecision, from); 
+		event.end(); 
+		if (event.shouldCommit()) {
+			event.cause = cause; 
+			event.tokens = displayStack.size(); 
+			event.firstToken = from; 
+			event.workingPrecision = workingPrecision; 
+			event.error = msg; 
+			event.commit(); 
+		}
+		return msg; 
+	}
+
+	/**
+	 * Replays the display stack, see replay(int, int, String) (which also records it in CalculatorMetrics and CalculatorEvents)
+	 */
+	private String replay(int workingPrecision, int from) {
+		var displayStackCpy = (Stack<String>) displayStack.clone(); 
+		int[] kinds = Arrays.copyOf(tokenKinds, displayStackCpy.size()); 
+		int length = display.length(); 
+		replaying = true; 
+		if (from == 0) {
+			clearState(); 
+			yard.setPrecision(workingPrecision); 
+		} else {
+			while (displayStack.size() > from) {
+				String popped = displayStack.pop(); 
+				displayRemove(display.length() - popped.length(), popped.length()); 
+			}
+			rollBack(); 
+			recalculateStack = false; 
+		}
+		String msg = null; 
+		for (int i = from; i < kinds.length; i++) { 
+			String err = append(displayStackCpy.get(i), kinds[i]); 
+			if (ShuntingYard.cancelled()) {
+				//the remaining tokens would be dropped too, keep them all instead (the checkpoints are rebuilt by the next replay)
+				clearState(); 
+				for (int j = 0; j < kinds.length; j++) {
+					pushDisplay(displayStackCpy.get(j), kinds[j], 0, 0, 0); 
+				}
+				recalculateStack = true; 
+				recalculateCause = "cancelled"; 
+				recalculateFrom = 0; 
+				replaying = false; 
+				return CalculatorException.message(CalculatorException.CANCELLED); 
+			}
+			if (msg == null) {
+				msg = err; 
+			}
+		}
+		replaying = false; 
+		if (msg != null) {
+			//a token was dropped, replace the whole display
+			String text = display.toString(); 
+			for (var listener : displayListeners) {
+				if (length > 0) {
+					listener.displayRemoved(0, length); 
+				}
+				if (!text.isEmpty()) {
+					listener.displayInserted(0, text); 
+				}
+			}
+		}
+		return msg; 
+	}
+
 	/** appends a command and updates member variable states accordingly
 	 * precondition:
 	 *  	all member variable states are valid
@@ -616,60 +427,87 @@ public class Calculator {
 	 * postcondition:
 	 * 	all member variable states stay valid
 	 * @param s the command
+	 * @param kind what the command is (Lexer.classify)
 	 * @return the error code, or null if no error
 	 */
-	private String append(String s) {
+	private String append(String s, int kind) {
 		String msg = null; 
                 // flag if the user wants to subtract from their answer (vs. default behaviour to append a "neg")
-		boolean subtractAns = !recalculateStack && displayStack.empty() && !(variableMap.get("Ans").compareTo(BigDecimal.ZERO) == 0); 
+		boolean subtractAns = !recalculateStack && !replaying && displayStack.empty() && variables[CompiledExpression.ANS].signum() != 0; 
+		if (!replaying && yard.getPrecision() < precision + ShuntingYard.GUARD_DIGITS) {
+			//precision was raised since the stacks were computed, their digits aren't enough anymore
+			recalculateStack = true; 
+			recalculateCause = "precision"; 
+			recalculateFrom = 0; 
+		}
 		if (recalculateStack) { 
-			var displayStackCpy = (Stack<String>) displayStack.clone(); 
-			clearState(); 
-			for (String token : displayStackCpy) { 
-				append(token); 
+			replay(precision + ShuntingYard.GUARD_DIGITS, recalculateFrom, recalculateCause); 
+			if (recalculateStack) {
+				return CalculatorException.message(CalculatorException.CANCELLED); 
 			}
 		}
-		if (s.matches("^[0-9]+$")) { // if token is a number
-			if (s.length() > 1) { // if length of token is greater than 1
-				if (!appendNumerical(s)) {
+		//checkpoint for this token
+		int valMark = yard.valStack.mark(); 
+		int opMark = yard.operatorStack.mark(); 
+		int surplus = yard.valSurplus; 
+		switch (kind) {
+			case Lexer.NUMBER: 
+				if (s.length() > 1) { // if length of token is greater than 1
+					if (!yard.appendNumber(s, 0, s.length())) {
+						msg = "Invalid Expression!"; 
+					}
+				} else { // if length of token is 1
+					if (!appendDigit(s)) {
+						msg = "Invalid Expression!";
+					}
+					return msg; 
+				}
+				break; 
+			case Lexer.OPERATOR: 
+				var op = Lexer.operatorOf(s); 
+				if (op == Operator.SUB && subtractAns) { 
+					append("Ans", Lexer.CONSTANT);
+					//"Ans" is its own token, so this one starts after it
+					valMark = yard.valStack.mark(); 
+					opMark = yard.operatorStack.mark(); 
+					surplus = yard.valSurplus; 
+				}
+				int errcode = yard.appendOperator(op); 
+				if (errcode != 0) { 
+					msg = CalculatorException.message(errcode); 
+				}
+				break; 
+			case Lexer.CONSTANT: 
+				boolean appended; 
+				if (s.equals("Ans") && exactAns != null && yard.isExactMode()) {
+					appended = yard.appendConstant(exactAns); 
+				} else {
+					appended = yard.appendConstant(s.equals("Ans") ? variables[CompiledExpression.ANS] : engine.constant(s)); 
+				}
+				if (!appended) {
 					msg = "Invalid Expression!"; 
 				}
-			} else { // if length of token is 1
-				if (!appendDigit(s)) {
-					msg = "Invalid Expression!";
+				break; 
+			case Lexer.VARIABLE: 
+				int slot = engine.variableSlot(s); 
+				if (slot < 0) {
+					break; //not declared, shown as is
 				}
-				return msg; 
-			}
-		} else if (variableMap.containsKey(s)) { 
-			if (!appendConstant(variableMap.get(s))) {
-				msg = "Invalid Expression!"; 
-			}
-		} else if (opMap.containsKey(s)) { 
-			var op = opMap.get(s); 
-			if (op == Operator.SUB && subtractAns) { 
-				append("Ans");
-			}
-			int errcode = appendOperator(op); 
-			switch (errcode) { 
-				case -1:
-					msg = "Syntax Error!"; 
-					break; 
-				case 1:
-					msg = "Undefined Result!";
-					break;
-				case 2: 
-					msg = "Math Error!";
-					break;
-				default: 
-					break;
-			}
+				if (slot >= variables.length || variables[slot] == null) {
+					msg = CalculatorException.message(CalculatorException.UNDEFINED_VARIABLE); 
+				} else if (!yard.appendConstant(variables[slot])) {
+					msg = "Invalid Expression!"; 
+				}
+				break; 
+			default: 
+				break; 
 		}
 
 		if (msg == null) {
-			displayStack.push(s); 
-		} else if (displayStack.empty()) { 
-			append("Ans"); 
-			msg = append(s); 
+			pushDisplay(s, kind, valMark, opMark, surplus); 
+		} else if (displayStack.empty() && !ShuntingYard.cancelled()) { 
+			append("Ans", Lexer.CONSTANT); 
+			msg = append(s, kind); 
 			if (msg != null) { 
 				clearState();
 			}
@@ -689,7 +527,16 @@ public class Calculator {
 	 * @return the error message, or null if no error
 	 */
 	public String requestAppend(String req) {
-		return append(req); 
+		CalculatorMetrics metrics = CalculatorMetrics.get(); 
+		if (!metrics.isEnabled()) {
+			yard.setBudget(budget); 
+			return append(req, Lexer.classify(req)); 
+		}
+		long start = System.nanoTime(); 
+		yard.setBudget(budget); 
+		String msg = append(req, Lexer.classify(req)); 
+		metrics.recordAppend(msg, System.nanoTime() - start); 
+		return msg; 
 	}
 	/**Gets the evaluated result of the expression
 	 * preconditions:
@@ -703,6 +550,40 @@ public class Calculator {
 	 * 	[1]: the evaluated value, or the error message if an error occured
 	 */
 	public String[] getEvaluation() {
+		CalculatorMetrics metrics = CalculatorMetrics.get(); 
+		var event = new CalculatorEvents.Evaluation(); 
+		if (!metrics.isEnabled() && !event.isEnabled()) {
+			return evaluate(); 
+		}
+		if (event.isEnabled()) {
+			//the display is cleared by a successful evaluation
+			event.expression = getDisplayString(); 
+			event.tokens = displayStack.size(); 
+		}
+		event.begin(); 
+		long start = System.nanoTime(); 
+		String[] output = evaluate(); 
+		long nanos = System.nanoTime() - start; 
+		event.end(); 
+		String msg = output[0].isEmpty() ? output[1] : null; 
+		if (metrics.isEnabled()) {
+			metrics.recordEvaluation(msg, nanos); 
+		}
+		if (event.shouldCommit()) {
+			event.precision = precision; 
+			event.degreeMode = yard.isDegreeMode(); 
+			event.exactMode = yard.isExactMode(); 
+			event.error = msg; 
+			event.commit(); 
+		}
+		return output; 
+	}
+
+	/**
+	 * Evaluates the expression, see getEvaluation (which also records it in CalculatorMetrics and CalculatorEvents)
+	 */
+	private String[] evaluate() {
+		yard.setBudget(budget); 
 		int bracv = 0; 
 		for (String s : displayStack) {
 			if (s.equals("(")) {
@@ -712,23 +593,33 @@ public class Calculator {
 			}
 		}
 		for (int i = 0; i < bracv; i++) {
-			String msg = append(")"); 
+			String msg = append(")", Lexer.OPERATOR); 
 			if (msg != null) { 
 				return new String[]{"", msg};
 			}
 		}
 		//For the evaluation, the calculator just appends one more closing bracket than neccessary, ensures that
 		//all operators are applied
-		String msg = append(")"); 
+		String msg = append(")", Lexer.OPERATOR); 
 		if (msg != null) { 
 			return new String[]{"", msg}; 
 		}
-		if (valStack.size() > 1) {
+		if (yard.valStack.size() > 1) {
 			return new String[]{"", "An Internal error occured!"}; 
 		}
-		displayStack.pop(); 
+		//if rounding errors could show in the displayed digits, evaluate again with more digits
+		for (int retry = yard.retryPrecision(precision); retry != 0; retry = yard.retryPrecision(precision)) {
+			msg = replay(retry, 0, "precision retry"); 
+			if (msg != null) {
+				return new String[]{"", msg}; 
+			}
+		}
+		//the display is cleared after this, so only the text and displayStack are kept up to date
+		String closing = displayStack.pop(); 
+		displayRemove(display.length() - closing.length(), closing.length()); 
 		for (int i = 0; i < -bracv; i++) { 
 			displayStack.insertElementAt("(", 0); 
+			displayInsert(0, "("); 
 		}
 		if (bracv < 0) { 
 			bracv = -bracv; 
@@ -739,28 +630,112 @@ public class Calculator {
 			bracv--; 
 			displayStack.pop(); 
 			displayStack.remove(0); 
+			displayRemove(display.length() - 1, 1); 
+			displayRemove(0, 1); 
 		}
 
-		BigDecimal res = valStack.peek();
-		variableMap.put("Ans", res);
+		//a fraction is only divided out now, to the displayed digits (and to the working precision for Ans outside of exact mode)
+		Rational exact = yard.peekFraction(); 
+		variables[CompiledExpression.ANS] = yard.peekDecimal();
+		exactAns = exact.isDecimal() ? null : exact; 
 		//prepare output array with display string and rounded result
-		String[] output = {getDisplayString(), res.round(new MathContext(precision, RoundingMode.HALF_EVEN)).toString()}; 
+		String[] output = {getDisplayString(), exact.toBigDecimal(new MathContext(precision, RoundingMode.HALF_EVEN)).toString()}; 
 		clearState();
 		return output;
 	}
 
 	/**Request a pop from the calculator
+	 * Restores the stacks from the checkpoint of the popped token, by undoing only what that token did.
 	 * preconditions:
 	 * 	member variables have valid states
 	 * postconditions:
-	 * 	member variables have valid states (recalculateStack must be true)
+	 * 	member variables have valid states (same as before the popped token was appended)
 	 */
 	public void requestPop() {
 		if (displayStack.empty()) { 
 			return;
 		}
-		recalculateStack = true;
-		displayStack.pop();
+		String popped = displayStack.pop();
+		displayRemove(display.length() - popped.length(), popped.length()); 
+		if (recalculateStack) {
+			//the stacks will be rebuilt from the display stack on the next append anyways, from the checkpoint of this token at the latest
+			recalculateFrom = Math.min(recalculateFrom, displayStack.size()); 
+			return; 
+		}
+		if (displayStack.empty()) {
+			//nothing to replay, but a "-" after erasing everything should still be a negative sign rather than Ans-
+			recalculateStack = true;
+			recalculateCause = "pop";
+			recalculateFrom = 0;
+			return;
+		}
+		rollBack(); 
+	}
+
+	/** Restores the stacks from the checkpoint of the token after the last one of the display stack, undoing only what that
+	 * token and the ones after it did
+	 * preconditions: the display stack isn't empty, and its tokens were popped since the checkpoints were taken
+	 * postconditions: the stacks are the same as when the last token of the display stack was appended
+	 */
+	private void rollBack() {
+		int i = displayStack.size() * 3; 
+		yard.valStack.rollback(checkpoints[i]); 
+		yard.operatorStack.rollback(checkpoints[i + 1]); 
+		yard.valSurplus = checkpoints[i + 2]; 
+		//if the token before was a number, it is being built again
+		String top = displayStack.peek(); 
+		if (tokenKinds[displayStack.size() - 1] == Lexer.NUMBER) {
+			yard.setPending(top, 0, top.length()); 
+		} else {
+			yard.setPending(null, 0, 0); 
+		}
+	}
+
+	/**Evaluates a whole expression at once, without going through the display or changing the state of the calculator (including Ans)
+	 * (see CalculatorSession.evaluate for the rules)
+	 * preconditions: none
+	 * postconditions: state of the calculator is unaltered
+	 * 
+	 * @param expression the expression, ex: "2sin(30)+sqrt(2)^3". Spaces are ignored
+	 * @return the result, rounded to precision, without trailing zeros
+	 * @throws CalculatorException with the same error message that key by key input would give
+	 */
+	public BigDecimal evaluate(String expression) {
+		return evaluate(compile(expression)); 
+	}
+
+	/**Compiles an expression with the engine, or gets it from its plan cache
+	 * @param expression the expression (see evaluate)
+	 * @return the plan
+	 * @throws CalculatorException on a syntax error
+	 */
+	public CompiledExpression compile(String expression) {
+		return engine.compile(expression); 
+	}
+
+	/**Evaluates a compiled expression with the current Ans, variables and angle mode
+	 * preconditions: none
+	 * postconditions: state of the calculator is unaltered
+	 * @param plan the plan from compile
+	 * @return the result, rounded to precision, without trailing zeros
+	 * @throws CalculatorException on a math error
+	 */
+	public BigDecimal evaluate(CompiledExpression plan) {
+		return engine.evaluate(plan, variables, precision, yard.isDegreeMode(), budget); 
+	}
+
+	/**Gets the cache of compiled expressions used by evaluate (it belongs to the engine), with its hit/miss/eviction counters
+	 * @return the plan cache
+	 */
+	public PlanCache getPlanCache() {
+		return engine.getPlanCache(); 
+	}
+
+	/**
+	 * @return the engine this calculator evaluates with
+	 */
+	public CalculatorEngine getEngine() {
+		return engine; 
 	}
 
 	/** requests the clear through the clear command
@@ -769,7 +744,8 @@ public class Calculator {
 	 */
 	public void requestClearBtn() {
 		clearState();
-		variableMap.put("Ans", BigDecimal.ZERO);
+		variables[CompiledExpression.ANS] = BigDecimal.ZERO;
+		exactAns = null; 
 	}
 
 }
@@ -0,0 +1,287 @@
+package shuntingyardcalc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command line batch mode: evaluates a file (or stdin) of expressions, one per line, and writes one line per expression to stdout,
+ * in the same order: the result, or the error message (like "Math Error!"). Blank lines stay blank.
+ * Usage: CalculatorCli [--precision N] [--degrees] [--threads N] [--timeout MILLIS] [FILE]
+ *
+ * Lines are read in chunks that are evaluated on a pool of workers, each with its own CalculatorSession. The chunks are
+ * written in the order they were read, from a queue that holds a few chunks per worker: when the oldest chunk is slow,
+ * the reading waits instead of buffering the rest, so the memory used doesn't grow with the input.
+ * A chunk is sent to the workers when it's full, or when no more input is ready yet, so results of a slow pipe come out as it goes.
+ *
+ * Errors don't stop the run: each one is also reported with its line number on stderr, and the exit status is 1 if there was any
+ * (2 for a bad command line or an input that can't be read).
+ */
+public final class CalculatorCli {
+
+	private static final int CHUNK_LINES = 256; //most lines in a chunk
+	private static final int CHUNKS_PER_WORKER = 4; //chunks read ahead of the one being written, per worker
+
+	private final CalculatorEngine engine;
+	private final int precision;
+	private final boolean degreeMode;
+	private final EvaluationBudget budget;
+	private final int threads;
+
+	/**
+	 * The lines of a chunk, then their output
+	 */
+	private static final class Chunk {
+		final long firstLine; //line number of the first one, from 1
+		final String[] lines;
+		final boolean[] failed;
+
+		Chunk(long firstLine, String[] lines) {
+			this.firstLine = firstLine;
+			this.lines = lines;
+			failed = new boolean[lines.length];
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param engine the engine to evaluate with
+	 * @param precision number of significant digits of the results
+	 * @param degreeMode true if angles are in degrees
+	 * @param budget the limits of the evaluation of each line
+	 * @param threads number of workers
+	 * @throws IllegalArgumentException if precision or threads isn't positive
+	 */
+	public CalculatorCli(CalculatorEngine engine, int precision, boolean degreeMode, EvaluationBudget budget, int threads) {
+		if (precision <= 0 || threads <= 0) {
+			throw new IllegalArgumentException("precision and threads must be positive");
+		}
+		if (budget == null) {
+			throw new IllegalArgumentException("budget can't be null");
+		}
+		this.engine = engine;
+		this.precision = precision;
+		this.degreeMode = degreeMode;
+		this.budget = budget;
+		this.threads = threads;
+	}
+
+	/**
+	 * Evaluates every line of the input
+	 * @param in the expressions, one per line
+	 * @param out where the results are written, one line per line of in (it's flushed when waiting for results, not closed)
+	 * @param errors where the errors are reported, with their line number
+	 * @return the number of lines that gave an error
+	 * @throws IOException if in can't be read or out can't be written
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	public long run(BufferedReader in, Writer out, PrintStream errors) throws IOException, InterruptedException {
+		var count = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Calculator worker " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		ThreadLocal<CalculatorSession> sessions = ThreadLocal.withInitial(this::newSession);
+		BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<>(threads * CHUNKS_PER_WORKER);
+		IOException[] readError = new IOException[1];
+		Thread reader = new Thread(() -> {
+			try {
+				read(in, workers, sessions, pending);
+			} catch (IOException ex) {
+				readError[0] = ex;
+			} catch (InterruptedException ex) {
+				return; //the writing stopped
+			}
+			try {
+				pending.put(CompletableFuture.completedFuture(null)); //the end
+			} catch (InterruptedException ex) {
+				//the writing stopped
+			}
+		}, "Calculator reader");
+		reader.setDaemon(true);
+		reader.start();
+		long numErrors = 0;
+		try {
+			while (true) {
+				Future<Chunk> next = pending.poll();
+				if (next == null) {
+					out.flush(); //the results so far are out while the next ones are evaluated
+					next = pending.take();
+				}
+				Chunk chunk;
+				try {
+					chunk = next.get();
+				} catch (ExecutionException ex) {
+					throw new IllegalStateException(ex.getCause()); //evaluate catches everything, so it's a bug
+				}
+				if (chunk == null) {
+					break;
+				}
+				for (int i = 0; i < chunk.lines.length; i++) {
+					out.write(chunk.lines[i]);
+					out.write('\n');
+					if (chunk.failed[i]) {
+						numErrors++;
+						errors.println("line " + (chunk.firstLine + i) + ": " + chunk.lines[i]);
+					}
+				}
+			}
+		} finally {
+			reader.interrupt();
+			workers.shutdownNow();
+		}
+		reader.join();
+		out.flush();
+		if (readError[0] != null) {
+			throw readError[0];
+		}
+		return numErrors;
+	}
+
+	private CalculatorSession newSession() {
+		CalculatorSession session = engine.newSession();
+		session.setPrecision(precision);
+		session.setDegreeMode(degreeMode);
+		session.setBudget(budget);
+		return session;
+	}
+
+	/**
+	 * Reads the input in chunks, and queues their evaluation in order
+	 */
+	private void read(BufferedReader in, ExecutorService workers, ThreadLocal<CalculatorSession> sessions,
+			BlockingQueue<Future<Chunk>> pending) throws IOException, InterruptedException {
+		String[] lines = new String[CHUNK_LINES];
+		int size = 0;
+		long lineNumber = 1;
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines[size++] = line;
+			if (size == CHUNK_LINES || !in.ready()) {
+				var chunk = new Chunk(lineNumber, Arrays.copyOf(lines, size));
+				lineNumber += size;
+				size = 0;
+				pending.put(workers.submit(() -> evaluate(chunk, sessions.get())));
+			}
+		}
+		if (size > 0) {
+			var chunk = new Chunk(lineNumber, Arrays.copyOf(lines, size));
+			pending.put(workers.submit(() -> evaluate(chunk, sessions.get())));
+		}
+	}
+
+	/**
+	 * Evaluates the lines of a chunk, replacing each one by its result or error message
+	 * @return the chunk
+	 */
+	private static Chunk evaluate(Chunk chunk, CalculatorSession session) {
+		String[] lines = chunk.lines;
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].isBlank()) {
+				lines[i] = "";
+				continue;
+			}
+			try {
+				BigDecimal result = session.evaluate(lines[i]);
+				lines[i] = result.toString();
+			} catch (CalculatorException ex) {
+				lines[i] = ex.getMessage();
+				chunk.failed[i] = true;
+			} catch (RuntimeException ex) {
+				lines[i] = CalculatorException.message(CalculatorException.INTERNAL_ERROR);
+				chunk.failed[i] = true;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Runs the batch mode, see the class description
+	 * --precision: significant digits of the results, default 10 (like Calculator.precision), at most EvaluationBudget.getMaxPrecision
+	 * --degrees: angles in degrees (like Calculator.toggleAngleMeasure), radians otherwise
+	 * --threads: number of workers, default the number of processors
+	 * --timeout: time limit of the evaluation of each line, default none
+	 * FILE: the expressions, stdin if it's missing or "-"
+	 * The metrics are registered over JMX, see CalculatorMetrics.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int precision = 10;
+		boolean degrees = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long timeout = 0;
+		String file = null;
+		CalculatorCli cli;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--precision":
+						precision = Integer.parseInt(value(args, ++i));
+						break;
+					case "--degrees":
+						degrees = true;
+						break;
+					case "--threads":
+						threads = Integer.parseInt(value(args, ++i));
+						break;
+					case "--timeout":
+						timeout = Long.parseLong(value(args, ++i));
+						break;
+					default:
+						if (file != null || args[i].startsWith("--")) {
+							throw new IllegalArgumentException("unexpected argument " + args[i]);
+						}
+						file = args[i];
+						break;
+				}
+			}
+			EvaluationBudget budget = EvaluationBudget.DEFAULT.withTimeout(timeout);
+			if (precision > budget.getMaxPrecision()) {
+				throw new IllegalArgumentException("precision must be an integer from 1 to " + budget.getMaxPrecision());
+			}
+			cli = new CalculatorCli(CalculatorEngine.getDefault(), precision, degrees, budget, threads);
+		} catch (IllegalArgumentException ex) { //NumberFormatException too
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: CalculatorCli [--precision N] [--degrees] [--threads N] [--timeout MILLIS] [FILE]");
+			System.exit(2);
+			return;
+		}
+		CalculatorMetrics.registerMBean();
+		long numErrors;
+		try (BufferedReader in = file == null || file.equals("-")
+				? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+			var out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			numErrors = cli.run(in, out, System.err);
+		} catch (IOException ex) {
+			System.err.println(ex);
+			System.exit(2);
+			return;
+		}
+		System.exit(numErrors == 0 ? 0 : 1);
+	}
+
+	private static String value(String[] args, int i) {
+		if (i == args.length) {
+			throw new IllegalArgumentException("missing value for " + args[i - 1]);
+		}
+		return args[i];
+	}
+}
@@ -0,0 +1,222 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The shareable part of the calculator: the constants, the names of the variables and the cache of compiled expressions.
+ * Its only mutable state is concurrent (the plan cache, and the variable names which are only ever added), so one engine can serve
+ * any number of threads at once, without locks on the evaluation path.
+ *
+ * Variables: each name is given an int slot the first time it's declared, and expressions are compiled with the slots, so the values
+ * are held by each caller in a flat array (slot 0 is Ans) and rebinding a variable and evaluating again never looks up a name.
+ * The names are shared by every caller of the engine, their values aren't.
+ *
+ * What changes from one caller to another (Ans, precision, angle mode, the expression being typed) is kept in a session instead:
+ * - CalculatorSession, for evaluating whole expressions. Sessions are cheap, one per thread or per request.
+ * - Calculator, for key by key input
+ * A session is not thread safe, but sessions of the same engine can be used concurrently.
+ */
+public final class CalculatorEngine {
+
+	private static final CalculatorEngine DEFAULT = new CalculatorEngine(4096);
+
+	//map for constants, takes in the string rep. and returns the value (Ans is not a constant, it's kept by each session)
+	private final Map<String, BigDecimal> constants;
+	private final PlanCache planCache; //compiled expressions, by their text
+	private final ConcurrentHashMap<String, Integer> variableSlots; //slot of each variable name, and of Ans
+	private volatile String[] variableNames; //variableNames[i] has slot i + 1, replaced (never changed) when a name is added
+
+	/**
+	 * Constructor, creates an engine with its own plan cache
+	 * @param planCacheCapacity max number of compiled expressions kept
+	 */
+	public CalculatorEngine(int planCacheCapacity) {
+		constants = Map.of("π", Trig.PI_CONSTANT, "e", BigDecimal.valueOf(Math.E));
+		planCache = new PlanCache(planCacheCapacity);
+		variableSlots = new ConcurrentHashMap<>();
+		variableSlots.put("Ans", CompiledExpression.ANS);
+		variableNames = new String[0];
+	}
+
+	/**
+	 * @return the engine shared by every Calculator created without one
+	 */
+	public static CalculatorEngine getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates a session for evaluating expressions with this engine, with Ans = 0, precision 10 and radians
+	 * @return the session
+	 */
+	public CalculatorSession newSession() {
+		return new CalculatorSession(this);
+	}
+
+	/**
+	 * Gets the value of a constant
+	 * @param name the name, like "π"
+	 * @return the value, or null if there is no constant with that name
+	 */
+	BigDecimal constant(String name) {
+		return constants.get(name);
+	}
+
+	/**
+	 * Gets the slot of a variable, giving it the next one if it's a new name
+	 * @param name the name: letters, digits and _, starting with a letter, and not a function or constant (Ans has slot 0)
+	 * @return the slot
+	 * @throws IllegalArgumentException if the name can't be used for a variable
+	 */
+	public int declareVariable(String name) {
+		Integer slot = variableSlots.get(name);
+		if (slot != null) {
+			return slot;
+		}
+		if (!Lexer.isVariableName(name)) {
+			throw new IllegalArgumentException("Invalid variable name: " + name);
+		}
+		synchronized (variableSlots) {
+			slot = variableSlots.get(name);
+			if (slot == null) {
+				String[] names = Arrays.copyOf(variableNames, variableNames.length + 1);
+				names[names.length - 1] = name;
+				slot = CompiledExpression.ANS + names.length;
+				variableNames = names;
+				variableSlots.put(name, slot);
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * Gets the slot of a variable
+	 * @param name the name
+	 * @return the slot, or -1 if no variable was declared with that name
+	 */
+	public int variableSlot(String name) {
+		Integer slot = variableSlots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**Compiles an expression to a plan that can be evaluated many times, or gets it from the plan cache
+	 * preconditions: none
+	 * postconditions: the plan is in the plan cache
+	 * @param expression the expression (see CalculatorSession.evaluate), it can use the declared variables
+	 * @return the plan
+	 * @throws CalculatorException on a syntax error
+	 */
+	public CompiledExpression compile(String expression) {
+		String[] names = variableNames;
+		//a name declared since the plan was compiled could be read differently ("ex" isn't e*x anymore), so that plan is a miss
+		CompiledExpression plan = planCache.get(expression, names.length);
+		if (plan == null) {
+			plan = CompiledExpression.compile(expression, constants, names);
+			planCache.put(plan);
+		}
+		return plan;
+	}
+
+	/**Compiles an expression with its own variables instead of the declared ones, without caching it (the same text can mean another plan)
+	 * @param expression the expression, ex: "sqrt(x^2+y^2)"
+	 * @param variables names of the variables, variables[i] is loaded from slot i + 1 (slot 0 is Ans)
+	 * @return the plan
+	 * @throws CalculatorException on a syntax error
+	 * @throws IllegalArgumentException if a name can't be used for a variable
+	 */
+	CompiledExpression compile(String expression, String[] variables) {
+		for (String name : variables) {
+			if (!Lexer.isVariableName(name)) {
+				throw new IllegalArgumentException("Invalid variable name: " + name);
+			}
+		}
+		return CompiledExpression.compile(expression, constants, variables);
+	}
+
+	/**Evaluates a compiled plan. Safe to call from any thread, everything it changes is local to the call
+	 * @param plan the plan from compile
+	 * @param variables the value of each variable slot (Ans is slot 0), null if the variable has no value
+	 * @param precision number of significant digits of the result
+	 * @param degreeMode true if angles are in degrees
+	 * @param budget the limits of the evaluation
+	 * @return the result, rounded to precision, without trailing zeros
+	 * @throws CalculatorException on a math error, if the plan uses a variable that has no value, or if it goes over the budget
+	 */
+	BigDecimal evaluate(CompiledExpression plan, BigDecimal[] variables, int precision, boolean degreeMode, EvaluationBudget budget) {
+		for (int slot : plan.loadedSlots) {
+			if (slot >= variables.length || variables[slot] == null) {
+				throw new CalculatorException(CalculatorException.UNDEFINED_VARIABLE);
+			}
+		}
+		var mc = new MathContext(precision, RoundingMode.HALF_EVEN);
+		//most expressions are decided by doubles, BigDecimal is only needed when their error bound is too wide
+		if (precision <= DoubleEvaluator.MAX_DIGITS) {
+			var fast = new DoubleEvaluator(plan, degreeMode, precision);
+			int errcode = fast.run(variables);
+			if (errcode == 0) {
+				BigDecimal res = fast.result(mc);
+				if (res != null) {
+					return normalize(res, precision);
+				}
+			} else if (errcode != DoubleEvaluator.ESCALATE) {
+				throw new CalculatorException(errcode);
+			}
+		}
+		return normalize(evaluateExact(plan, variables, precision, degreeMode, budget), precision);
+	}
+
+	/**Evaluates a compiled plan with BigDecimal only, adding digits until rounding errors can't show in the result
+	 * @param plan the plan
+	 * @param variables the value of each variable slot
+	 * @param precision number of significant digits of the result
+	 * @param degreeMode true if angles are in degrees
+	 * @param budget the limits of the evaluation, retries included
+	 * @return the result, rounded to precision
+	 * @throws CalculatorException on a math error, or if it goes over the budget
+	 */
+	BigDecimal evaluateExact(CompiledExpression plan, BigDecimal[] variables, int precision, boolean degreeMode, EvaluationBudget budget) {
+		var ys = new ShuntingYard();
+		ys.setDegreeMode(degreeMode);
+		ys.setBudget(budget);
+		int working = precision + ShuntingYard.GUARD_DIGITS;
+		do {
+			ys.clear();
+			ys.setPrecision(working);
+			int errcode = plan.execute(ys, variables);
+			if (errcode != 0) {
+				throw new CalculatorException(errcode);
+			}
+			working = ys.retryPrecision(precision); //more digits if rounding errors could show in the result
+		} while (working != 0);
+		if (ys.valStack.size() != 1) {
+			throw new CalculatorException(CalculatorException.INTERNAL_ERROR);
+		}
+		return ys.valStack.peek().round(new MathContext(precision, RoundingMode.HALF_EVEN));
+	}
+
+	/**Removes trailing zeros from a rounded result, so it doesn't depend on how it was computed (2*1.50 is 3 with doubles,
+	 * but 3.00 with BigDecimal). Integers that fit in the precision keep their zeros: 100 rather than 1E+2
+	 * @param res the result, rounded to precision
+	 * @param precision the precision it was rounded to
+	 * @return the same value with the smallest scale that shows it
+	 */
+	private static BigDecimal normalize(BigDecimal res, int precision) {
+		res = res.stripTrailingZeros();
+		if (res.scale() < 0 && res.precision() - res.scale() <= precision) {
+			res = res.setScale(0);
+		}
+		return res;
+	}
+
+	/**Gets the cache of compiled expressions, with its hit/miss/eviction counters
+	 * @return the plan cache
+	 */
+	public PlanCache getPlanCache() {
+		return planCache;
+	}
+}
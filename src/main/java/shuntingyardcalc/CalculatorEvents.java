@@ -0,0 +1,112 @@
+package shuntingyardcalc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the calculator, to see in a recording what an evaluation that "hung" was doing.
+ * They are under the "Calculator" category, and enabled by default in a recording, like:
+ *   java -XX:StartFlightRecording:filename=calc.jfr ...
+ *   jfr print --events shuntingyardcalc.Operation calc.jfr
+ * Operation events are only kept above a threshold, 10 ms by default, which can be changed like any event setting:
+ *   -XX:StartFlightRecording:filename=calc.jfr,settings=custom.jfc (with shuntingyardcalc.Operation#threshold set in custom.jfc)
+ * or Recording.enable(CalculatorEvents.Operation.class).withThreshold(...) in process.
+ *
+ * When nothing records them, creating an event, begin and end cost nothing once compiled (the JIT removes them), so the
+ * fields are only filled in after isEnabled or shouldCommit.
+ */
+final class CalculatorEvents {
+
+	private CalculatorEvents() {
+	}
+
+	/**
+	 * Calculator.getEvaluation. Its retries with more digits are Replay events during it
+	 */
+	@Name("shuntingyardcalc.Evaluation")
+	@Label("Evaluation")
+	@Category("Calculator")
+	@Description("Evaluation of the displayed expression (Calculator.getEvaluation)")
+	static final class Evaluation extends Event {
+		@Label("Expression")
+		String expression;
+
+		@Label("Tokens")
+		@Description("Number of tokens of the display stack")
+		int tokens;
+
+		@Label("Precision")
+		@Description("Significant digits of the displayed result")
+		int precision;
+
+		@Label("Degree Mode")
+		boolean degreeMode;
+
+		@Label("Exact Mode")
+		boolean exactMode;
+
+		@Label("Error")
+		@Description("Error message, or null if there was a result")
+		String error;
+	}
+
+	/**
+	 * A replay of the display stack, see Calculator.replay
+	 */
+	@Name("shuntingyardcalc.Replay")
+	@Label("Stack Replay")
+	@Category("Calculator")
+	@Description("Every token of the display stack appended again, after a change of mode (like toggleAngleMeasure) or to retry with more digits")
+	static final class Replay extends Event {
+		@Label("Cause")
+		@Description("What required it: angle measure, exact mode, variable, pop, cancelled, precision (raised) or precision retry")
+		String cause;
+
+		@Label("Tokens")
+		int tokens;
+
+		@Label("First Token")
+		@Description("Index of the first token appended again, the stacks are kept up to it (0 if they were cleared)")
+		int firstToken;
+
+		@Label("Working Precision")
+		int workingPrecision;
+
+		@Label("Error")
+		@Description("Error message of the first token that failed, or null")
+		String error;
+	}
+
+	/**
+	 * A slow ShuntingYard.applyOperation
+	 */
+	@Name("shuntingyardcalc.Operation")
+	@Label("Slow Operation")
+	@Category("Calculator")
+	@Description("Operator applied with BigDecimal arithmetic that took longer than the threshold")
+	@Threshold("10 ms")
+	static final class Operation extends Event {
+		@Label("Operator")
+		String operator;
+
+		@Label("First Operand Digits")
+		@Description("Significant digits of the first (or only) operand")
+		int firstDigits;
+
+		@Label("Second Operand Digits")
+		@Description("Significant digits of the second operand, 0 for a unary operator")
+		int secondDigits;
+
+		@Label("Working Precision")
+		@Description("Precision of the MathContext of the operation")
+		int workingPrecision;
+
+		@Label("Error Code")
+		@Description("0, or the CalculatorException code")
+		int errorCode;
+	}
+}
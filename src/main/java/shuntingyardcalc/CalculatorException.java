@@ -0,0 +1,77 @@
+package shuntingyardcalc;
+
+/**
+ * Thrown when an expression can't be evaluated. 
+ * The code and message are the same as the ones the calculator gives for key by key input.
+ */
+public class CalculatorException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int INVALID_EXPRESSION = -2; //a number or constant can't be placed there
+	public static final int SYNTAX_ERROR = -1;
+	public static final int UNDEFINED = 1;
+	public static final int MATH_ERROR = 2;
+	public static final int INTERNAL_ERROR = 3;
+	public static final int UNDEFINED_VARIABLE = 4; //a variable that has no value
+	public static final int CANCELLED = 5; //the evaluating thread was interrupted
+	public static final int TOO_LARGE = 6; //the evaluation would go over its EvaluationBudget
+
+	private final int code;
+
+	/**
+	 * Constructor, sets the message from the code
+	 * @param code one of the error codes above
+	 */
+	public CalculatorException(int code) {
+		super(message(code));
+		this.code = code;
+	}
+
+	/**
+	 * @return the error code
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Gets the message shown to the user for an error code
+	 * @param code the error code
+	 * @return the message
+	 */
+	static String message(int code) {
+		switch (code) {
+			case INVALID_EXPRESSION:
+				return "Invalid Expression!";
+			case SYNTAX_ERROR:
+				return "Syntax Error!";
+			case UNDEFINED:
+				return "Undefined Result!";
+			case MATH_ERROR:
+				return "Math Error!";
+			case UNDEFINED_VARIABLE:
+				return "Undefined Variable!";
+			case CANCELLED:
+				return "Cancelled!";
+			case TOO_LARGE:
+				return "Too Large to Compute!";
+			default:
+				return "An Internal error occured!";
+		}
+	}
+
+	/**
+	 * Gets the error code of a message shown to the user, the inverse of message
+	 * @param message the message
+	 * @return the error code, INTERNAL_ERROR if it isn't one of the messages
+	 */
+	static int code(String message) {
+		for (int code = INVALID_EXPRESSION; code <= TOO_LARGE; code++) {
+			if (code != 0 && message(code).equals(message)) {
+				return code;
+			}
+		}
+		return INTERNAL_ERROR;
+	}
+}
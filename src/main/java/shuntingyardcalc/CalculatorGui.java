@@ -3,15 +3,33 @@
  * Click nbfs://nbhost/SystemFileSystem/Templates/GUIForms/JFrame.java to edit this template
  */
 package shuntingyardcalc;
+import java.awt.Cursor;
 import java.awt.event.KeyEvent; 
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
 /**
  * Dennis Ren
  * 4/19/2024
  * A calculator app that is useful for every day calculations, like the Google calculator
  * Implements the shunting yard algorithm (using stacks to parse an expression)
+ *
+ * The calculator runs on its own thread so that a long calculation doesn't freeze the window: requests are queued to it in order,
+ * and the display changes and messages are sent back to the event thread. A long calculation can be cancelled (Esc or the menu).
  */
 public class CalculatorGui extends javax.swing.JFrame {
-	Calculator calc; 
+	Calculator calc; //only used on the worker thread
+	private boolean mirroring; //true if txtInput shows the display of calc, false if it shows a result (or the first 0). Worker thread only
+	private final ExecutorService worker; //runs every request to calc, one at a time and in order
+	private final ArrayDeque<Request> pending; //requests queued or running, event thread only
+	private final Timer busyTimer; //shows the busy indicator once a request has run long enough to notice
+	private final javax.swing.JMenuItem menuCancel; 
+	private boolean busy; //true while the busy indicator is shown
+	private String message; //the last message of the calculator, shown again when the busy indicator is hidden
 	/**
 	 * Creates new form NewJFrame
 	 */
@@ -20,8 +38,76 @@ public class CalculatorGui extends javax.swing.JFrame {
 		jScrollPane1.getHorizontalScrollBar().setPreferredSize(new java.awt.Dimension(0, 4));
 		calc = new Calculator();
 		calc.precision = 10; 
+		worker = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Calculator"); 
+			t.setDaemon(true); 
+			return t; 
+		});
+		pending = new ArrayDeque<>(); 
+		busyTimer = new Timer(250, evt -> showBusy(true)); 
+		busyTimer.setRepeats(false); 
+		menuCancel = new javax.swing.JMenuItem("Cancel"); 
+		menuCancel.setEnabled(false); 
+		menuCancel.setMaximumSize(menuCancel.getPreferredSize()); 
+		menuCancel.addActionListener(evt -> cancel()); 
+		jMenuBar1.add(menuCancel); 
+		var menuExact = new javax.swing.JCheckBoxMenuItem("Exact fractions"); 
+		menuExact.addActionListener(evt -> {
+			boolean exact = menuExact.isSelected(); 
+			submitSetting(() -> {
+				calc.setExactMode(exact); 
+				boolean now = calc.getExactMode(); 
+				SwingUtilities.invokeLater(() -> {
+					menuExact.setSelected(now); 
+					labelMsg.setText(now ? "Fractions are exact" : "Fractions are rounded"); 
+				});
+			});
+		});
+		menuPrecision.add(menuExact); 
+		//patch the input text with each change instead of setting all of it after every token
+		//(the changes are made on the worker thread, and applied in the same order on the event thread)
+		calc.addDisplayListener(new DisplayListener() {
+			@Override
+			public void displayInserted(int offset, String text) {
+				if (!mirroring) {
+					return; 
+				}
+				SwingUtilities.invokeLater(() -> {
+					try {
+						txtInput.getDocument().insertString(offset, text, null); 
+					} catch (BadLocationException ex) {
+						resync(); 
+					}
+				});
+			}
+
+			@Override
+			public void displayRemoved(int offset, int length) {
+				if (!mirroring) {
+					return; 
+				}
+				SwingUtilities.invokeLater(() -> {
+					try {
+						txtInput.getDocument().remove(offset, length); 
+					} catch (BadLocationException ex) {
+						resync(); 
+					}
+				});
+			}
+		});
 	}
 
+	/**
+	 * Sets the whole input text to the display of the calculator, if a change didn't apply (should never happen)
+	 */
+	private void resync() {
+		worker.execute(() -> {
+			if (mirroring) {
+				String text = calc.getDisplayString(); 
+				SwingUtilities.invokeLater(() -> txtInput.setText(text)); 
+			}
+		});
+	}
 
 	/**
 	 * This method is called from within the constructor to initialize the
@@ -595,7 +681,11 @@ public class CalculatorGui extends javax.swing.JFrame {
 				usrInput("Back");
 				break;
 			case KeyEvent.VK_ESCAPE: 
-				usrInput("Clear"); 
+				if (busy) { //while calculating, only stop the calculation and keep the expression
+					cancel(); 
+				} else {
+					usrInput("Clear"); 
+				}
 				break;
 			default: 
 				break;
@@ -655,9 +745,14 @@ public class CalculatorGui extends javax.swing.JFrame {
         }//GEN-LAST:event_btnBackActionPerformed
 
         private void menuSetAngleActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuSetAngleActionPerformed
-		calc.toggleAngleMeasure(); 
-		menuAngle.setText((calc.getDegreeMode())? "Deg" : "Rad");
-		menuSetAngle.setText("Switch to " + ((calc.getDegreeMode())? "radians" : "degrees")); 
+		submitSetting(() -> {
+			calc.toggleAngleMeasure(); 
+			boolean degrees = calc.getDegreeMode(); 
+			SwingUtilities.invokeLater(() -> {
+				menuAngle.setText((degrees)? "Deg" : "Rad");
+				menuSetAngle.setText("Switch to " + ((degrees)? "radians" : "degrees")); 
+			});
+		});
         }//GEN-LAST:event_menuSetAngleActionPerformed
 
         private void menuSetPrecisionActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuSetPrecisionActionPerformed
@@ -677,54 +772,170 @@ public class CalculatorGui extends javax.swing.JFrame {
 			labelMsg.setText("Value too large!");
 			return;
 		}
-		calc.precision = val; 
-		menuPrecision.setText("Precision: " + val); 
-		labelMsg.setText("Precision set"); 
+		submitSetting(() -> {
+			calc.precision = val; 
+			SwingUtilities.invokeLater(() -> {
+				menuPrecision.setText("Precision: " + val); 
+				labelMsg.setText("Precision set"); 
+			});
+		});
         }//GEN-LAST:event_menuSetPrecisionActionPerformed
 	
+	/** Queues a user input to the calculator, it's run on the worker thread (see process)
+	 * Clear also cancels the requests before it, since their result would be cleared anyway
+	 * pre-condition: same as process
+	 * post-condition: none, the display text is updated once the request has run
+	 * @param req the formatted request
+	 */
+	private void usrInput(String req) {
+		if (req.equals("Clear")) {
+			cancel(); 
+		}
+		String[] tokens = req.split(" "); 
+		submit(() -> process(tokens)); 
+	}
+
+	/** Runs a task on the worker thread after the ones already queued, and shows the busy indicator if it takes long
+	 * pre-condition: called on the event thread
+	 * @param task the task, it can use calc
+	 */
+	private void submit(Runnable task) {
+		submit(new Request(task, true)); 
+	}
+
+	/** Runs a change of a setting on the worker thread after the requests already queued, like submit, but cancel() leaves it:
+	 * the menus only show the new setting once it has run, so it must not be dropped (it's quick, the stacks are computed
+	 * again on the next request)
+	 * pre-condition: called on the event thread
+	 * @param task the task, it can use calc, and updates the menus with invokeLater
+	 */
+	private void submitSetting(Runnable task) {
+		submit(new Request(task, false)); 
+	}
+
+	private void submit(Request future) {
+		if (pending.isEmpty()) {
+			busyTimer.restart(); 
+		}
+		pending.add(future); 
+		worker.execute(future); 
+	}
+
+	/** Forgets a task that is done (or cancelled), and hides the busy indicator when none are left
+	 * @param future the task
+	 */
+	private void finished(Request future) {
+		pending.remove(future); 
+		if (pending.isEmpty()) {
+			busyTimer.stop(); 
+			showBusy(false); 
+		}
+	}
+
+	/**
+	 * Cancels every queued request, and interrupts the one running (it gives the "Cancelled!" message and is undone)
+	 * The changes of settings are kept, see submitSetting
+	 */
+	private void cancel() {
+		for (var future : pending) {
+			if (future.cancellable) {
+				future.cancel(true); //finished is called later, so pending isn't changed here
+			}
+		}
+	}
+
+	/**
+	 * A task of the worker thread, that calls finished once it's done or cancelled
+	 */
+	private final class Request extends FutureTask<Void> {
+		final boolean cancellable; //false for a change of a setting
+
+		Request(Runnable task, boolean cancellable) {
+			super(task, null); 
+			this.cancellable = cancellable; 
+		}
+
+		@Override
+		protected void done() {
+			SwingUtilities.invokeLater(() -> finished(this)); 
+		}
+	}
+
+	/** Shows or hides the busy indicator: a message, the wait cursor, and the cancel menu item
+	 * @param show true while a request is running
+	 */
+	private void showBusy(boolean show) {
+		if (show == busy || (show && pending.isEmpty())) {
+			return; 
+		}
+		busy = show; 
+		menuCancel.setEnabled(show); 
+		setCursor(show ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : null); 
+		labelMsg.setText(show ? "Calculating... (Esc to cancel)" : message); 
+	}
+
+	/** Shows a message of the calculator, or keeps it for when the busy indicator is hidden
+	 * pre-condition: called on the event thread
+	 * @param msg the message, or null for none
+	 */
+	private void showMessage(String msg) {
+		message = msg; 
+		if (!busy) {
+			labelMsg.setText(msg); 
+		}
+	}
+
 	/** Requests a user input from the calculator and updates the display text
+	 * Runs on the worker thread, the text is changed on the event thread.
+	 * The display text follows the changes of the calculator display (see the DisplayListener in the constructor),
+	 * it's only set as a whole to show a result, and to go back to the display after one.
 	 * pre-condition:
 	 * 	req is space separated with no trailing spaces
 	 * 	space separated substrings of req are recognized by the calculator and valid (defined in the calculator class)
 	 * post-condition:
 	 * 	The display text is well-formatted by the above criteria
-	 * @param req the formatted request
+	 * 	If the thread was interrupted, the remaining tokens are skipped
+	 * @param tokens the space separated substrings of the formatted request
 	 */
-	private void usrInput(String req) {
-		String txt;
-		String msg; 
-		for(var s : req.split(" ")) { 
-				
+	private void process(String[] tokens) {
+		for(var s : tokens) { 
+			if (Thread.currentThread().isInterrupted()) {
+				return; 
+			}
+			if (!mirroring) { 
+				String text = calc.getDisplayString(); 
+				SwingUtilities.invokeLater(() -> txtInput.setText(text)); 
+				mirroring = true; 
+			}
+			String msg; 
 			switch(s) { 
-				case "Enter": 
+				case "Enter":
 					String[] arr = calc.getEvaluation(); 
 					if(arr[0].isEmpty()) { 
-						msg = arr[1];
-						txt = calc.getDisplayString(); 
+						msg = arr[1]; 
 						break; 
 					}
 					msg = null; 
-					txtExpr.setText(arr[0] + " ="); 
-					txt = arr[1]; 
+					mirroring = false; 
+					SwingUtilities.invokeLater(() -> {
+						txtExpr.setText(arr[0] + " ="); 
+						txtInput.setText(arr[1]); 
+					});
 					break; 
-				case "Clear": 
+				case "Clear":
 					calc.requestClearBtn(); 
 					msg = "Cleared"; 
-					txtExpr.setText(null); 
-					txt = calc.getDisplayString();
+					SwingUtilities.invokeLater(() -> txtExpr.setText(null)); 
 					break; 
-				case "Back": 
+				case "Back":
 					msg = null; 
 					calc.requestPop(); 
-					txt = calc.getDisplayString(); 
 					break; 
 				default:
-					msg = calc.requestAppend(s);
-					txt = calc.getDisplayString(); 
+					msg = calc.requestAppend(s); 
 					break; 
 			}
-			labelMsg.setText(msg); 
-			txtInput.setText(txt);
+			SwingUtilities.invokeLater(() -> showMessage(msg)); 
 		}
 	}
 
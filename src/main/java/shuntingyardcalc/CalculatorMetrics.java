@@ -0,0 +1,339 @@
+package shuntingyardcalc;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the calculator, for every calculator in the process:
+ * - each Operator applied by ShuntingYard.applyOperation (the BigDecimal path, so not the operations of DoubleEvaluator)
+ * - Calculator.requestAppend and Calculator.getEvaluation
+ * - the replays of the display stack (after a change of precision or angle mode, a cancelled request, or a Ziv retry)
+ * Each one counts its calls, its errors by code (see CalculatorException) and its latency.
+ *
+ * Recording is lock free: every counter is a LongAdder, and a histogram is a LongAdder per power of two of nanoseconds,
+ * so threads recording at once don't contend on a cache line, and a snapshot never blocks them. A snapshot taken while
+ * they record can be off by the few operations in flight. Recording can be turned off (isEnabled), then it costs a volatile read.
+ *
+ * Read with snapshot(), or over JMX once registerMBean is called (the server and the command line do it), as OBJECT_NAME.
+ */
+public final class CalculatorMetrics implements CalculatorMetricsMXBean {
+
+	public static final String OBJECT_NAME = "shuntingyardcalc:type=CalculatorMetrics";
+
+	private static final Operator[] OPERATORS = Operator.values();
+	//error codes are counted from INVALID_EXPRESSION (-2) to TOO_LARGE (6)
+	private static final int MIN_CODE = CalculatorException.INVALID_EXPRESSION;
+	private static final int MAX_CODE = CalculatorException.TOO_LARGE;
+	private static final CalculatorMetrics GLOBAL = new CalculatorMetrics(); //after the constants it uses
+
+	private volatile boolean enabled = true;
+	private final Recorder[] operators = new Recorder[OPERATORS.length]; //by ordinal
+	private final Recorder appends = new Recorder();
+	private final Recorder evaluations = new Recorder();
+	private final LongAdder replays = new LongAdder();
+
+	private CalculatorMetrics() {
+		for (int i = 0; i < operators.length; i++) {
+			operators[i] = new Recorder();
+		}
+	}
+
+	/**
+	 * @return the metrics of the process
+	 */
+	public static CalculatorMetrics get() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as OBJECT_NAME. Does nothing if they already are
+	 * @throws IllegalStateException if they can't be registered
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(GLOBAL, name);
+			}
+		} catch (JMException ex) {
+			throw new IllegalStateException("can't register " + OBJECT_NAME, ex);
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Records an operation of ShuntingYard.applyOperation
+	 * @param op the operator
+	 * @param errcode its error code, 0 if none
+	 * @param nanos how long it took
+	 */
+	void recordOperation(Operator op, int errcode, long nanos) {
+		operators[op.ordinal()].record(errcode, nanos);
+	}
+
+	/**
+	 * Records a Calculator.requestAppend
+	 * @param msg the error message it returned, or null
+	 * @param nanos how long it took
+	 */
+	void recordAppend(String msg, long nanos) {
+		appends.record(msg == null ? 0 : CalculatorException.code(msg), nanos);
+	}
+
+	/**
+	 * Records a Calculator.getEvaluation
+	 * @param msg the error message it returned, or null if it gave a result
+	 * @param nanos how long it took
+	 */
+	void recordEvaluation(String msg, long nanos) {
+		evaluations.record(msg == null ? 0 : CalculatorException.code(msg), nanos);
+	}
+
+	/**
+	 * Records a replay of the display stack
+	 */
+	void recordReplay() {
+		if (enabled) {
+			replays.increment();
+		}
+	}
+
+	@Override
+	public Map<String, OperationStats> getOperators() {
+		Map<String, OperationStats> ret = new LinkedHashMap<>();
+		for (Operator op : OPERATORS) {
+			OperationStats stats = operators[op.ordinal()].snapshot();
+			if (stats.getCalls() > 0) {
+				ret.put(op.name(), stats);
+			}
+		}
+		return Collections.unmodifiableMap(ret);
+	}
+
+	@Override
+	public OperationStats getRequestAppend() {
+		return appends.snapshot();
+	}
+
+	@Override
+	public OperationStats getEvaluation() {
+		return evaluations.snapshot();
+	}
+
+	@Override
+	public long getReplays() {
+		return replays.sum();
+	}
+
+	/**
+	 * @return everything recorded so far
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(getOperators(), getRequestAppend(), getEvaluation(), getReplays());
+	}
+
+	@Override
+	public void reset() {
+		for (Recorder recorder : operators) {
+			recorder.reset();
+		}
+		appends.reset();
+		evaluations.reset();
+		replays.reset();
+	}
+
+	/**
+	 * Calls, errors and latency of one kind of operation
+	 */
+	private static final class Recorder {
+		final LongAdder[] errors = new LongAdder[MAX_CODE - MIN_CODE + 1]; //by code - MIN_CODE
+		//bucket i counts the latencies of i bits: from 2^(i-1) to 2^i - 1 nanoseconds (0 for bucket 0), so they add up to the calls
+		final LongAdder[] buckets = new LongAdder[Long.SIZE];
+		final LongAdder totalNanos = new LongAdder();
+
+		Recorder() {
+			for (int i = 0; i < errors.length; i++) {
+				errors[i] = new LongAdder();
+			}
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(int errcode, long nanos) {
+			if (errcode != 0) {
+				errors[Math.max(MIN_CODE, Math.min(MAX_CODE, errcode)) - MIN_CODE].increment();
+			}
+			nanos = Math.max(0, nanos);
+			buckets[Long.SIZE - Long.numberOfLeadingZeros(nanos)].increment(); //nanos < 2^63, so at most 63
+			totalNanos.add(nanos);
+		}
+
+		OperationStats snapshot() {
+			Map<Integer, Long> errorCounts = new TreeMap<>();
+			for (int i = 0; i < errors.length; i++) {
+				long count = errors[i].sum();
+				if (count > 0) {
+					errorCounts.put(i + MIN_CODE, count);
+				}
+			}
+			long calls = 0;
+			long[] counts = new long[buckets.length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets[i].sum();
+				calls += counts[i];
+			}
+			return new OperationStats(calls, errorCounts, totalNanos.sum(), counts);
+		}
+
+		void reset() {
+			for (LongAdder adder : errors) {
+				adder.reset();
+			}
+			for (LongAdder adder : buckets) {
+				adder.reset();
+			}
+			totalNanos.reset();
+		}
+	}
+
+	/**
+	 * Calls, errors by code and latency of one kind of operation, at the time of the snapshot. Immutable.
+	 * The percentiles are the upper bounds of the power of two histogram buckets, so they are within a factor of 2 (above).
+	 */
+	public static final class OperationStats {
+		private final long calls;
+		private final Map<Integer, Long> errors;
+		private final long totalNanos;
+		private final long[] buckets;
+
+		OperationStats(long calls, Map<Integer, Long> errors, long totalNanos, long[] buckets) {
+			this.calls = calls;
+			this.errors = Collections.unmodifiableMap(errors);
+			this.totalNanos = totalNanos;
+			this.buckets = buckets;
+		}
+
+		public long getCalls() {
+			return calls;
+		}
+
+		/**
+		 * @return the number of errors by code (see CalculatorException), only the codes that happened
+		 */
+		public Map<Integer, Long> getErrors() {
+			return errors;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMeanNanos() {
+			return calls == 0 ? 0 : totalNanos / calls;
+		}
+
+		public long getP50Nanos() {
+			return percentile(0.5);
+		}
+
+		public long getP90Nanos() {
+			return percentile(0.9);
+		}
+
+		public long getP99Nanos() {
+			return percentile(0.99);
+		}
+
+		public long getMaxNanos() {
+			return percentile(1);
+		}
+
+		/**
+		 * @param fraction the fraction of the calls, from 0 to 1
+		 * @return the upper bound of the bucket of the histogram that has that fraction of the calls at or below it
+		 */
+		private long percentile(double fraction) {
+			if (calls == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(fraction * calls));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String toString() {
+			return "calls=" + calls + " errors=" + errors + " mean=" + getMeanNanos() + "ns p50<=" + getP50Nanos()
+					+ "ns p99<=" + getP99Nanos() + "ns max<=" + getMaxNanos() + "ns";
+		}
+	}
+
+	/**
+	 * Everything recorded, at the time of the snapshot. Immutable.
+	 */
+	public static final class Snapshot {
+		private final Map<String, OperationStats> operators;
+		private final OperationStats requestAppend;
+		private final OperationStats evaluation;
+		private final long replays;
+
+		Snapshot(Map<String, OperationStats> operators, OperationStats requestAppend, OperationStats evaluation, long replays) {
+			this.operators = operators;
+			this.requestAppend = requestAppend;
+			this.evaluation = evaluation;
+			this.replays = replays;
+		}
+
+		/**
+		 * @return the stats of each operator applied at least once, by name (like "ADD")
+		 */
+		public Map<String, OperationStats> getOperators() {
+			return operators;
+		}
+
+		public OperationStats getRequestAppend() {
+			return requestAppend;
+		}
+
+		public OperationStats getEvaluation() {
+			return evaluation;
+		}
+
+		public long getReplays() {
+			return replays;
+		}
+
+		@Override
+		public String toString() {
+			var sb = new StringBuilder();
+			operators.forEach((name, stats) -> sb.append(name).append(": ").append(stats).append('\n'));
+			sb.append("requestAppend: ").append(requestAppend).append('\n');
+			sb.append("getEvaluation: ").append(evaluation).append('\n');
+			return sb.append("replays: ").append(replays).toString();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package shuntingyardcalc;
+
+import java.util.Map;
+
+/**
+ * The JMX view of CalculatorMetrics, see CalculatorMetrics.registerMBean
+ */
+public interface CalculatorMetricsMXBean {
+
+	/**
+	 * @return true if operations are recorded
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @param enabled true to record operations, false to stop (what was recorded is kept)
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return the stats of each operator applied at least once, by name (like "ADD")
+	 */
+	Map<String, CalculatorMetrics.OperationStats> getOperators();
+
+	/**
+	 * @return the stats of Calculator.requestAppend
+	 */
+	CalculatorMetrics.OperationStats getRequestAppend();
+
+	/**
+	 * @return the stats of Calculator.getEvaluation
+	 */
+	CalculatorMetrics.OperationStats getEvaluation();
+
+	/**
+	 * @return the number of replays of the display stack
+	 */
+	long getReplays();
+
+	/**
+	 * Sets every counter back to 0
+	 */
+	void reset();
+}
@@ -0,0 +1,309 @@
+package shuntingyardcalc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless server, so other processes can evaluate expressions: newline delimited JSON over TCP (loopback) or a Unix domain socket.
+ *
+ * Each line of a connection is a request, a flat JSON object:
+ *   {"id": 1, "expression": "2sin(30)+sqrt(2)^3", "precision": 20, "degrees": true}
+ * - expression: evaluated like CalculatorSession.evaluate (required)
+ * - precision: significant digits of the result, default 10, at most EvaluationBudget.getMaxPrecision of the server's budget
+ * - degrees: true if angles are in degrees, default false (radians)
+ * - id: optional, any string or number, given back in the response
+ * Each request gets one line back, in the same order:
+ *   {"id":1,"result":"3.828427124746190097"}
+ *   {"id":2,"error":"Math Error!","code":2}
+ * with the message and code of the CalculatorException, the same as key by key input. A request that can't be read gets
+ * {"error":"Invalid Request!","detail":"..."} without a code.
+ *
+ * A client can send many requests without waiting for the responses (pipelining): they are answered in order, and the responses
+ * are sent together once every request received so far is answered. A connection is only read as fast as its responses are
+ * sent, so a client that sends without reading is slowed down by TCP itself, and the number of connections is limited (the ones
+ * over it wait to be accepted). Every evaluation has the budget given to the server, so a request can't hold a thread for long.
+ *
+ * Each connection has its own thread and CalculatorSession, all sharing one CalculatorEngine (and its plan cache).
+ */
+public final class CalculatorServer {
+
+	private static final String INVALID_REQUEST = "Invalid Request!";
+	private static final int MAX_LINE = 1 << 16; //longest request, in bytes
+	private static final int BUFFER_SIZE = 1 << 13;
+	private static final int DEFAULT_PRECISION = 10;
+
+	private final CalculatorEngine engine;
+	private final int maxConnections;
+	private final EvaluationBudget budget;
+
+	/**
+	 * Constructor
+	 * @param engine the engine to evaluate with
+	 * @param maxConnections connections served at once, the others wait to be accepted
+	 * @param budget the limits of each evaluation
+	 * @throws IllegalArgumentException if maxConnections isn't positive
+	 */
+	public CalculatorServer(CalculatorEngine engine, int maxConnections, EvaluationBudget budget) {
+		if (maxConnections <= 0) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		if (budget == null) {
+			throw new IllegalArgumentException("budget can't be null");
+		}
+		this.engine = engine;
+		this.maxConnections = maxConnections;
+		this.budget = budget;
+	}
+
+	/**
+	 * Accepts and serves connections until the server channel is closed (or this thread is interrupted), then closes the
+	 * connections still open
+	 * @param server a bound server channel, TCP or Unix domain, in blocking mode
+	 * @throws IOException if accepting fails for another reason
+	 */
+	public void serve(ServerSocketChannel server) throws IOException {
+		var permits = new Semaphore(maxConnections);
+		var count = new AtomicInteger();
+		ExecutorService connections = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "Calculator connection " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			while (true) {
+				try {
+					permits.acquire();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for a connection to end");
+				}
+				SocketChannel connection;
+				try {
+					connection = server.accept();
+				} catch (IOException ex) {
+					permits.release();
+					throw ex;
+				}
+				connections.execute(() -> {
+					try (connection) {
+						serve(connection);
+					} catch (IOException ex) {
+						//the client went away, or its connection was closed on shutdown
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} catch (ClosedChannelException ex) {
+			//the server channel was closed, the normal way to stop
+		} finally {
+			connections.shutdownNow(); //interrupting a thread blocked on its connection closes it
+		}
+	}
+
+	/**
+	 * Answers the requests of a connection until the client closes it
+	 * @param connection the connection, in blocking mode
+	 * @throws IOException if reading or writing fails
+	 */
+	private void serve(SocketChannel connection) throws IOException {
+		InputStream in = new BufferedInputStream(Channels.newInputStream(connection), BUFFER_SIZE);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(connection), BUFFER_SIZE);
+		CalculatorSession session = engine.newSession();
+		session.setBudget(budget);
+		byte[] line = new byte[256];
+		while (true) {
+			int length = 0;
+			boolean tooLong = false;
+			int b;
+			while ((b = in.read()) != '\n' && b >= 0) {
+				if (length == MAX_LINE) {
+					tooLong = true; //the rest of the line is skipped
+				} else {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = (byte) b;
+				}
+			}
+			if (length > 0 && line[length - 1] == '\r') {
+				length--;
+			}
+			String request = new String(line, 0, length, StandardCharsets.UTF_8);
+			if (!request.isBlank() || tooLong) {
+				String response = tooLong ? invalid(null, "longer than " + MAX_LINE + " bytes") : respond(session, request);
+				out.write(response.getBytes(StandardCharsets.UTF_8));
+				out.write('\n');
+			}
+			if (b < 0) {
+				out.flush();
+				return;
+			}
+			//the responses to the requests already received are sent together
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a request
+	 * @param session the session of the connection
+	 * @param request a line, see the class description
+	 * @return the response line, without the newline
+	 */
+	private static String respond(CalculatorSession session, String request) {
+		Map<String, Object> members;
+		try {
+			members = Json.parseObject(request);
+		} catch (IllegalArgumentException ex) {
+			return invalid(null, ex.getMessage());
+		}
+		Object id = members.get("id");
+		if (id != null && !(id instanceof String) && !(id instanceof BigDecimal)) {
+			return invalid(null, "id must be a string or a number");
+		}
+		Object expression = members.get("expression");
+		if (!(expression instanceof String)) {
+			return invalid(id, "expression must be a string");
+		}
+		Object precision = members.getOrDefault("precision", BigDecimal.valueOf(DEFAULT_PRECISION));
+		int digits;
+		try {
+			digits = ((BigDecimal) precision).intValueExact();
+		} catch (ClassCastException | ArithmeticException ex) {
+			digits = 0;
+		}
+		if (digits <= 0 || digits > session.getBudget().getMaxPrecision()) {
+			return invalid(id, "precision must be an integer from 1 to " + session.getBudget().getMaxPrecision());
+		}
+		Object degrees = members.getOrDefault("degrees", Boolean.FALSE);
+		if (!(degrees instanceof Boolean)) {
+			return invalid(id, "degrees must be true or false");
+		}
+		session.setPrecision(digits);
+		session.setDegreeMode((Boolean) degrees);
+		StringBuilder sb = start(id);
+		try {
+			BigDecimal result = session.evaluate((String) expression);
+			sb.append("\"result\":");
+			Json.quote(sb, result.toString());
+		} catch (CalculatorException ex) {
+			sb.append("\"error\":");
+			Json.quote(sb, ex.getMessage());
+			sb.append(",\"code\":").append(ex.getCode());
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @return the start of a response, with its id if there is one
+	 */
+	private static StringBuilder start(Object id) {
+		var sb = new StringBuilder("{");
+		if (id instanceof String) {
+			sb.append("\"id\":");
+			Json.quote(sb, (String) id);
+			sb.append(',');
+		} else if (id != null) {
+			sb.append("\"id\":").append(id).append(',');
+		}
+		return sb;
+	}
+
+	private static String invalid(Object id, String detail) {
+		StringBuilder sb = start(id).append("\"error\":");
+		Json.quote(sb, INVALID_REQUEST);
+		sb.append(",\"detail\":");
+		Json.quote(sb, detail);
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Runs a server until the process is stopped
+	 * Usage: CalculatorServer (--port PORT | --unix PATH) [--connections N] [--timeout MILLIS]
+	 * --port listens on the loopback address (0 picks a free port), --unix on a new socket file, deleted on exit.
+	 * The address is printed once it listens. The metrics are registered over JMX, see CalculatorMetrics.
+	 */
+	public static void main(String[] args) throws IOException {
+		Integer port = null;
+		Path unix = null;
+		int maxConnections = 256;
+		long timeout = 5000;
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				if (i + 1 == args.length) {
+					throw new IllegalArgumentException("missing value for " + args[i]);
+				}
+				switch (args[i]) {
+					case "--port":
+						port = Integer.parseInt(args[i + 1]);
+						break;
+					case "--unix":
+						unix = Path.of(args[i + 1]);
+						break;
+					case "--connections":
+						maxConnections = Integer.parseInt(args[i + 1]);
+						break;
+					case "--timeout":
+						timeout = Long.parseLong(args[i + 1]);
+						break;
+					default:
+						throw new IllegalArgumentException("unknown option " + args[i]);
+				}
+			}
+			if ((port == null) == (unix == null)) {
+				throw new IllegalArgumentException("give either --port or --unix");
+			}
+		} catch (IllegalArgumentException ex) { //NumberFormatException too
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: CalculatorServer (--port PORT | --unix PATH) [--connections N] [--timeout MILLIS]");
+			System.exit(2);
+			return;
+		}
+		var server = new CalculatorServer(CalculatorEngine.getDefault(), maxConnections, EvaluationBudget.DEFAULT.withTimeout(timeout));
+		CalculatorMetrics.registerMBean();
+		ServerSocketChannel channel;
+		if (unix != null) {
+			channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.bind(UnixDomainSocketAddress.of(unix));
+			Path socket = unix;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Files.deleteIfExists(socket);
+				} catch (IOException ex) {
+					//nothing more to do on exit
+				}
+			}));
+		} else {
+			channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), maxConnections);
+		}
+		System.out.println("Listening on " + channel.getLocalAddress());
+		try (channel) {
+			server.serve(channel);
+		}
+	}
+}
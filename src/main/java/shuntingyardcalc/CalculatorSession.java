@@ -0,0 +1,149 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The per caller state for evaluating whole expressions with a CalculatorEngine: Ans, the values of the variables, the precision, the angle mode
+ * and the budget of each evaluation.
+ * It's small and cheap to create, so each thread or request can have its own while sharing one engine.
+ * Not thread safe: a session must only be used by one thread at a time.
+ *
+ * Variables are bound by name once, which gives their slot, then by slot:
+ *   int x = session.setVariable("x", value); CompiledExpression plan = engine.compile("x^2+1");
+ *   session.setVariable(x, other); session.evaluate(plan);
+ */
+public final class CalculatorSession {
+
+	private final CalculatorEngine engine;
+	private BigDecimal[] variables; //value of each variable slot, Ans is slot 0, null if it has no value
+	private int precision; //significant digits of the results
+	private boolean degreeMode;
+	private EvaluationBudget budget; //limits of each evaluation
+
+	/**
+	 * Constructor, creates a session with Ans = 0, precision 10, radians and the default budget (see CalculatorEngine.newSession)
+	 * @param engine the engine it evaluates with
+	 */
+	CalculatorSession(CalculatorEngine engine) {
+		this.engine = engine;
+		variables = new BigDecimal[8];
+		variables[CompiledExpression.ANS] = BigDecimal.ZERO;
+		precision = 10;
+		degreeMode = false;
+		budget = EvaluationBudget.DEFAULT;
+	}
+
+	/**Evaluates a whole expression at once, Ans is not changed. It can use the variables declared in the engine
+	 * The expression is read in a single pass, with the same rules as key by key input: implied multiplication, "-" as a negative sign
+	 * when it can't be subtraction, and missing closing brackets are added at the end.
+	 * Unlike key by key input, an operator at the start is a syntax error rather than being applied to Ans (Ans can still be used by name)
+	 * The compiled plan is cached by the engine, so evaluating the same text again skips parsing.
+	 *
+	 * @param expression the expression, ex: "2sin(30)+sqrt(2)^3". Spaces are ignored
+	 * @return the result, rounded to precision, without trailing zeros
+	 * @throws CalculatorException with the same error message that key by key input would give
+	 */
+	public BigDecimal evaluate(String expression) {
+		return evaluate(engine.compile(expression));
+	}
+
+	/**Evaluates a compiled expression, Ans is not changed
+	 * @param plan the plan from CalculatorEngine.compile
+	 * @return the result, rounded to precision, without trailing zeros
+	 * @throws CalculatorException on a math error, if the plan uses a variable that has no value in this session, or if it goes over the budget
+	 */
+	public BigDecimal evaluate(CompiledExpression plan) {
+		return engine.evaluate(plan, variables, precision, degreeMode, budget);
+	}
+
+	public CalculatorEngine getEngine() {
+		return engine;
+	}
+
+	public BigDecimal getAns() {
+		return variables[CompiledExpression.ANS];
+	}
+
+	/**
+	 * @param ans the value of Ans in the next evaluations
+	 */
+	public void setAns(BigDecimal ans) {
+		setVariable(CompiledExpression.ANS, ans);
+	}
+
+	/**
+	 * Binds a variable, declaring it in the engine if it's a new name
+	 * @param name the name of the variable
+	 * @param value its value in the next evaluations
+	 * @return the slot of the variable, for binding it again without the name
+	 * @throws IllegalArgumentException if the name can't be used for a variable
+	 */
+	public int setVariable(String name, BigDecimal value) {
+		int slot = engine.declareVariable(name);
+		setVariable(slot, value);
+		return slot;
+	}
+
+	/**
+	 * Binds a variable by its slot
+	 * @param slot the slot, from setVariable or CalculatorEngine.declareVariable
+	 * @param value its value in the next evaluations
+	 */
+	public void setVariable(int slot, BigDecimal value) {
+		if (value == null) {
+			throw new IllegalArgumentException("A variable can't be set to null");
+		}
+		if (slot >= variables.length) {
+			variables = Arrays.copyOf(variables, Math.max(slot + 1, variables.length * 2));
+		}
+		variables[slot] = value;
+	}
+
+	/**
+	 * @param slot the slot of the variable
+	 * @return its value, or null if it has none in this session
+	 */
+	public BigDecimal getVariable(int slot) {
+		return slot < variables.length ? variables[slot] : null;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @param precision number of significant digits of the results
+	 */
+	public void setPrecision(int precision) {
+		if (precision <= 0) {
+			throw new IllegalArgumentException("precision must be positive");
+		}
+		this.precision = precision;
+	}
+
+	public boolean isDegreeMode() {
+		return degreeMode;
+	}
+
+	/**
+	 * @param degreeMode true for degrees, false for radians
+	 */
+	public void setDegreeMode(boolean degreeMode) {
+		this.degreeMode = degreeMode;
+	}
+
+	public EvaluationBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @param budget the limits of each evaluation, like a timeout for a server request
+	 */
+	public void setBudget(EvaluationBudget budget) {
+		if (budget == null) {
+			throw new IllegalArgumentException("budget can't be null");
+		}
+		this.budget = budget;
+	}
+}
@@ -0,0 +1,370 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An expression that has already been parsed: an immutable postfix (RPN) plan of operators and literals.
+ * Evaluating it again doesn't lex, check syntax, or run the shunting yard, the plan is applied in order to a value stack.
+ * 
+ * Each instruction is an int, with the kind in the lowest 2 bits and its argument in the rest:
+ * - APPLY: apply the operator with that ordinal to the value stack
+ * - PUSH: push that literal
+ * - LOAD: push the value of that variable slot (ANS, then the variables the plan was compiled with)
+ * - TEMP: save, reuse or cache the value of a subexpression, see PlanOptimizer
+ * The values of the slots are given when evaluating, so a variable can be bound to another value and the plan evaluated again as is.
+ * 
+ * The plan records the operators the shunting yard would apply, in the same order, then PlanOptimizer folds the ones on literals
+ * that give exact results and merges the repeated subexpressions, so results and errors are the same with less arithmetic.
+ * The subexpressions without variables that round (like π/180) are cached by working precision and angle mode, shared by every
+ * evaluation of the plan, in a cache bounded for all the plans (see ConstantCache).
+ * Syntax errors are found when compiling, math errors when evaluating.
+ */
+public final class CompiledExpression {
+
+	static final int APPLY = 0;
+	static final int PUSH = 1;
+	static final int LOAD = 2;
+	static final int TEMP = 3;
+	//what a TEMP instruction does, in the lowest 2 bits of its argument (the temp index is in the rest), see PlanOptimizer
+	static final int SAVE = 0;
+	static final int REUSE = 1;
+	static final int CONST = 2;
+	static final int END = 3;
+	//the values of the CONSTs of every plan: at most 16M digits (about 7 MB), and 64K values
+	private static final ConstantCache CONSTANTS = new ConstantCache(1 << 24, 1 << 16);
+
+	static final int ANS = 0; //variable slot for Ans, the variables given to compile follow it
+
+	private static final Operator[] OPERATORS = Operator.values();
+
+	private final String expression;
+	final int[] program;
+	private final BigDecimal[] literals;
+	final int maxDepth; //most values on the stack at once
+	final int temps; //number of temps
+	final int[] constantEnds; //for each temp of a CONST, the index after its END (-1 for the other temps)
+	final int[][] nested; //for each temp of a CONST, the temps of the CONSTs inside it
+	final int[] loadedSlots; //the variable slots the plan loads, each once
+	final int variableCount; //number of variable names it was compiled with (a new name can change how the text is read)
+
+	//the literals as doubles for DoubleEvaluator, with the error of the conversion and their (absolute) scale
+	final double[] literalValues;
+	final double[] literalErrors;
+	final double[] literalScales;
+	final boolean doubleSafe; //false if a literal overflows or underflows a double
+
+	private CompiledExpression(String expression, int[] program, BigDecimal[] literals, int variableCount) {
+		var optimizer = new PlanOptimizer(program, literals);
+		this.expression = expression;
+		this.program = optimizer.program;
+		this.literals = optimizer.literals;
+		this.variableCount = variableCount;
+		temps = optimizer.temps;
+		constantEnds = optimizer.constantEnds;
+		nested = optimizer.nested;
+		int[] slots = new int[program.length];
+		int numSlots = 0;
+		int depth = 0;
+		int max = 0;
+		for (int instr : this.program) {
+			int arg = instr >>> 2;
+			switch (instr & 3) {
+				case APPLY:
+					depth -= OPERATORS[arg].numInputs - 1;
+					break;
+				case TEMP:
+					if ((arg & 3) == REUSE) {
+						depth++;
+					}
+					break;
+				case LOAD:
+					if (!contains(slots, numSlots, arg)) {
+						slots[numSlots++] = arg;
+					}
+					depth++;
+					break;
+				default:
+					depth++;
+					break;
+			}
+			max = Math.max(max, depth);
+		}
+		maxDepth = max;
+		loadedSlots = Arrays.copyOf(slots, numSlots);
+		literalValues = new double[this.literals.length];
+		literalErrors = new double[this.literals.length];
+		literalScales = new double[this.literals.length];
+		boolean safe = true;
+		for (int i = 0; i < this.literals.length; i++) {
+			double dbl = this.literals[i].doubleValue();
+			safe &= DoubleEvaluator.isUsable(dbl);
+			literalValues[i] = dbl;
+			literalErrors[i] = DoubleEvaluator.exactError(this.literals[i], dbl);
+			literalScales[i] = Math.abs(this.literals[i].scale());
+		}
+		doubleSafe = safe;
+	}
+
+	private static boolean contains(int[] array, int length, int val) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == val) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the text this plan was compiled from
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * The value of a CONST at a working precision and angle mode, with how computing it changed the tracking of rounding errors.
+	 * That depends on whether a result had already been rounded before it (see ShuntingYard.trackCancellation), so it's kept
+	 * for both cases, once each is seen. Immutable.
+	 */
+	static final class Constant {
+		final BigDecimal value;
+		final int lostIfExact; //digits lost to cancellation if nothing was rounded before, -1 if not seen yet
+		final boolean roundedIfExact; //true if it rounds (if nothing was rounded before)
+		final int lostIfRounded; //digits lost to cancellation if a result was rounded before, -1 if not seen yet
+
+		Constant(BigDecimal value, int lostIfExact, boolean roundedIfExact, int lostIfRounded) {
+			this.value = value;
+			this.lostIfExact = lostIfExact;
+			this.roundedIfExact = roundedIfExact;
+			this.lostIfRounded = lostIfRounded;
+		}
+	}
+
+	private static long cacheKey(ShuntingYard yard, int temp) {
+		return ((long) yard.getPrecision() << 1 | (yard.isDegreeMode() ? 1 : 0)) << 31 | temp;
+	}
+
+	/**
+	 * Runs the plan, leaving the result on the yard's value stack
+	 * The subexpressions without variables are skipped when their value is cached for the working precision and angle mode,
+	 * the rounding they would do is added to the yard instead (so it retries the same way), but not their cost.
+	 * precondition: yard is empty, variables has a value for every slot
+	 * postcondition: on success, yard.valStack has exactly the result (unless the plan is broken, which should never happen)
+	 * @param yard provides the value stack and the angle mode for applyOperation
+	 * @param variables the value of each variable slot
+	 * @return the error code of applyOperation, 0 on success
+	 */
+	int execute(ShuntingYard yard, BigDecimal[] variables) {
+		ValueStack vals = yard.valStack;
+		BigDecimal[] saved = temps == 0 ? null : new BigDecimal[temps];
+		int[] lostBefore = temps == 0 ? null : new int[temps]; //digits lost when each CONST started
+		boolean[] roundedBefore = temps == 0 ? null : new boolean[temps];
+		for (int pc = 0; pc < program.length; pc++) {
+			int instr = program[pc];
+			int arg = instr >>> 2;
+			switch (instr & 3) {
+				case PUSH:
+					vals.push(literals[arg]);
+					break;
+				case LOAD:
+					vals.push(variables[arg]);
+					break;
+				case TEMP:
+					int t = arg >>> 2;
+					switch (arg & 3) {
+						case SAVE:
+							saved[t] = vals.peek();
+							break;
+						case REUSE:
+							vals.push(saved[t]);
+							break;
+						case CONST:
+							if (reuseConstant(yard, t, saved)) {
+								pc = constantEnds[t] - 1;
+							} else {
+								lostBefore[t] = yard.getLostDigits();
+								roundedBefore[t] = yard.isRounded();
+							}
+							break;
+						default: //END
+							saved[t] = vals.peek();
+							cacheConstant(yard, t, saved[t], roundedBefore[t], yard.getLostDigits() - lostBefore[t]);
+							break;
+					}
+					break;
+				default:
+					int errcode = yard.applyOperation(OPERATORS[arg], vals);
+					if (errcode != 0) {
+						return errcode;
+					}
+					break;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Pushes the cached value of a CONST, if there is one, with the values of the CONSTs inside it
+	 * @param yard the yard running the plan, the rounding the CONST would do is added to it
+	 * @param temp the temp of the CONST
+	 * @param saved the values of the temps, the ones of the CONST and those inside it are set
+	 * @return true if the value was pushed, false if the subexpression has to be computed
+	 */
+	private boolean reuseConstant(ShuntingYard yard, int temp, BigDecimal[] saved) {
+		long key = cacheKey(yard, temp);
+		Constant constant = CONSTANTS.get(this, key);
+		boolean wasRounded = yard.isRounded();
+		if (constant == null || (wasRounded ? constant.lostIfRounded : constant.lostIfExact) < 0) {
+			return false;
+		}
+		for (int inner : nested[temp]) {
+			Constant val = CONSTANTS.get(this, key - temp + inner);
+			if (val == null) {
+				return false; //it was evicted in between
+			}
+			saved[inner] = val.value;
+		}
+		if (wasRounded) {
+			yard.addRounding(true, constant.lostIfRounded);
+		} else {
+			yard.addRounding(constant.roundedIfExact, constant.lostIfExact);
+		}
+		saved[temp] = constant.value;
+		yard.valStack.push(constant.value);
+		return true;
+	}
+
+	/**
+	 * Caches the value of a CONST, and the rounding computing it did
+	 * @param yard the yard running the plan
+	 * @param temp the temp of the CONST
+	 * @param value its value
+	 * @param wasRounded true if a result had been rounded before it
+	 * @param lost the digits it lost to cancellation
+	 */
+	private void cacheConstant(ShuntingYard yard, int temp, BigDecimal value, boolean wasRounded, int lost) {
+		long key = cacheKey(yard, temp);
+		Constant old = CONSTANTS.get(this, key);
+		if (old != null && (wasRounded ? old.lostIfRounded : old.lostIfExact) >= 0) {
+			return;
+		}
+		if (wasRounded) {
+			CONSTANTS.put(this, key, new Constant(value, old == null ? -1 : old.lostIfExact, old != null && old.roundedIfExact, lost));
+		} else {
+			CONSTANTS.put(this, key, new Constant(value, lost, yard.isRounded(), old == null ? -1 : old.lostIfRounded));
+		}
+	}
+
+	/**
+	 * Compiles an expression in a single pass, with the same rules as Calculator.evaluate
+	 * @param expression the expression, ex: "2sin(x)+sqrt(2)^3"
+	 * @param constants value of each constant name, except Ans which is loaded when evaluating
+	 * @param variables names of the variables (see Lexer.isVariableName), variables[i] is loaded from slot i + 1
+	 * @return the plan
+	 * @throws CalculatorException on a syntax error
+	 */
+	static CompiledExpression compile(String expression, Map<String, BigDecimal> constants, String[] variables) {
+		var builder = new Builder();
+		var lexer = new Lexer(expression, variables);
+		int token;
+		while ((token = lexer.next()) != Lexer.END) {
+			int errcode = 0;
+			switch (token) {
+				case Lexer.NUMBER:
+					if (!builder.appendNumber(expression, lexer.start(), lexer.end())) {
+						errcode = CalculatorException.INVALID_EXPRESSION;
+					}
+					break;
+				case Lexer.CONSTANT:
+					boolean ok = lexer.name().equals("Ans") ? builder.appendVariable(ANS) : builder.appendConstant(constants.get(lexer.name()));
+					if (!ok) {
+						errcode = CalculatorException.INVALID_EXPRESSION;
+					}
+					break;
+				case Lexer.VARIABLE:
+					if (!builder.appendVariable(ANS + 1 + lexer.variable())) {
+						errcode = CalculatorException.INVALID_EXPRESSION;
+					}
+					break;
+				case Lexer.OPERATOR:
+					errcode = builder.appendOperator(lexer.operator());
+					break;
+				default: //unrecognized character
+					errcode = CalculatorException.SYNTAX_ERROR;
+					break;
+			}
+			if (errcode != 0) {
+				throw new CalculatorException(errcode);
+			}
+		}
+		int errcode = builder.close();
+		if (errcode != 0) {
+			throw new CalculatorException(errcode);
+		}
+		return builder.build(expression, variables.length);
+	}
+
+	/**
+	 * Shunting yard which records what it would push and apply instead of doing it.
+	 * Nothing is evaluated, so appendOperator can only fail because of syntax.
+	 */
+	static final class Builder extends ShuntingYard {
+
+		private int[] program = new int[16];
+		private int size;
+		private BigDecimal[] literals = new BigDecimal[8];
+		private int numLiterals;
+
+		@Override
+		int apply(Operator op) {
+			emit(APPLY, op.ordinal());
+			return 0;
+		}
+
+		@Override
+		void pushNumber(CharSequence text, int start, int end, boolean fraction) {
+			pushConstant(parseNumber(text, start, end, fraction));
+		}
+
+		@Override
+		void pushConstant(BigDecimal val) {
+			if (numLiterals == literals.length) {
+				literals = Arrays.copyOf(literals, numLiterals * 2);
+			}
+			literals[numLiterals] = val;
+			emit(PUSH, numLiterals++);
+		}
+
+		/** Appends a variable, which is loaded when the plan is evaluated
+		 * @param slot the variable slot
+		 * @return true if the operation completed, false otherwise
+		 */
+		boolean appendVariable(int slot) {
+			if (!prepareValue()) {
+				return false;
+			}
+			emit(LOAD, slot);
+			valSurplus++;
+			return true;
+		}
+
+		private void emit(int kind, int arg) {
+			if (size == program.length) {
+				program = Arrays.copyOf(program, size * 2);
+			}
+			program[size++] = arg << 2 | kind;
+		}
+
+		/**
+		 * precondition: the expression was closed without errors
+		 * @param expression the text that was compiled
+		 * @param variableCount number of variable names it was compiled with
+		 * @return the plan, optimized
+		 */
+		CompiledExpression build(String expression, int variableCount) {
+			return new CompiledExpression(expression, Arrays.copyOf(program, size), Arrays.copyOf(literals, numLiterals), variableCount);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package shuntingyardcalc;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the values of the subexpressions without variables of compiled plans (see PlanOptimizer), by plan, working precision,
+ * angle mode and temp. One cache is shared by every plan, so the memory it holds is bounded however many plans are cached and at
+ * whatever precisions they are evaluated: by the total digits of the values, and by their number.
+ * When it's over either bound, the least recently used values are evicted, a batch at a time, the same way as PlanCache.
+ */
+final class ConstantCache {
+
+	private static final long TOUCH_INTERVAL = 1_000_000; //ns between updates of the last use time of a value
+
+	private final long maxDigits;
+	private final int maxValues;
+	private final ConcurrentHashMap<Key, Entry> values;
+	private final AtomicLong digits; //total digits of the values kept
+	private final AtomicBoolean evicting; //only one thread evicts at a time, the others don't wait for it
+
+	/**
+	 * A value of a plan, the plan is compared by identity
+	 */
+	private static final class Key {
+		final CompiledExpression plan;
+		final long key;
+
+		Key(CompiledExpression plan, long key) {
+			this.plan = plan;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).plan == plan && ((Key) obj).key == key;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(plan) * 31 + Long.hashCode(key);
+		}
+	}
+
+	private static final class Entry {
+		final CompiledExpression.Constant constant;
+		final long digits;
+		volatile long lastUsed; //System.nanoTime() of the last get, to within TOUCH_INTERVAL
+
+		Entry(CompiledExpression.Constant constant, long digits, long now) {
+			this.constant = constant;
+			this.digits = digits;
+			lastUsed = now;
+		}
+	}
+
+	/**
+	 * Constructor, creates an empty cache
+	 * @param maxDigits max total digits of the values kept
+	 * @param maxValues max number of values kept
+	 */
+	ConstantCache(long maxDigits, int maxValues) {
+		this.maxDigits = maxDigits;
+		this.maxValues = maxValues;
+		values = new ConcurrentHashMap<>();
+		digits = new AtomicLong();
+		evicting = new AtomicBoolean();
+	}
+
+	/**
+	 * @param plan the plan
+	 * @param key the working precision, angle mode and temp of the value (see CompiledExpression.cacheKey)
+	 * @return the value, or null if it isn't cached
+	 */
+	CompiledExpression.Constant get(CompiledExpression plan, long key) {
+		Entry entry = values.get(new Key(plan, key));
+		if (entry == null) {
+			return null;
+		}
+		long now = System.nanoTime();
+		if (now - entry.lastUsed > TOUCH_INTERVAL) {
+			entry.lastUsed = now;
+		}
+		return entry.constant;
+	}
+
+	/**
+	 * Caches a value, replacing the one with the same key, and evicts the least recently used ones if the cache is over its bounds
+	 * A value with more than an eighth of maxDigits isn't kept, it would evict too much of the cache.
+	 * postcondition: the cache is within its bounds, unless another thread is evicting (it will be soon after)
+	 * @param plan the plan
+	 * @param key the working precision, angle mode and temp of the value
+	 * @param constant the value
+	 */
+	void put(CompiledExpression plan, long key, CompiledExpression.Constant constant) {
+		long size = constant.value.precision();
+		if (size > maxDigits / 8) {
+			return;
+		}
+		Entry old = values.put(new Key(plan, key), new Entry(constant, size, System.nanoTime()));
+		digits.addAndGet(old == null ? size : size - old.digits);
+		//re-checked after evicting, for the values other threads put meanwhile (they didn't wait)
+		while ((values.size() > maxValues || digits.get() > maxDigits) && evicting.compareAndSet(false, true)) {
+			try {
+				evict();
+			} finally {
+				evicting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest eighth of the values (at least down to maxValues), so a full cache isn't scanned on every put
+	 */
+	private void evict() {
+		int count = Math.max(values.size() - maxValues, 0) + Math.max(1, maxValues / 8);
+		long[] times = new long[values.size() + 16]; //room for values put while copying
+		int n = 0;
+		for (Entry entry : values.values()) {
+			if (n == times.length) {
+				break;
+			}
+			times[n++] = entry.lastUsed;
+		}
+		if (n == 0) {
+			return;
+		}
+		Arrays.sort(times, 0, n);
+		long threshold = times[Math.min(count, n) - 1];
+		int removed = 0;
+		for (var it = values.entrySet().iterator(); it.hasNext() && removed < count;) {
+			var e = it.next();
+			if (e.getValue().lastUsed <= threshold && values.remove(e.getKey(), e.getValue())) {
+				digits.addAndGet(-e.getValue().digits);
+				removed++;
+			}
+		}
+	}
+}
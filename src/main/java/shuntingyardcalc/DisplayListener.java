@@ -0,0 +1,22 @@
+package shuntingyardcalc;
+
+/**
+ * Receives the changes to the display of a Calculator as they happen, so a view can patch its text instead of setting all of it
+ * after every key press. The offsets are in the display string (see Calculator.getDisplayString), as it is when the change is made.
+ */
+public interface DisplayListener {
+
+	/**
+	 * Called after text is inserted in the display
+	 * @param offset where the text starts
+	 * @param text the text
+	 */
+	void displayInserted(int offset, String text);
+
+	/**
+	 * Called after text is removed from the display
+	 * @param offset where the removed text started
+	 * @param length its number of characters
+	 */
+	void displayRemoved(int offset, int length);
+}
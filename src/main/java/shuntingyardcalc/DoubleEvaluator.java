@@ -0,0 +1,522 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Fast tier for evaluating a compiled plan: the same operators applied to primitive doubles instead of BigDecimal.
+ *
+ * Every value on the stack carries a bound on its absolute error from the exact result, which grows with each operation
+ * (representation of the literals, rounding of each operation, and how the operation magnifies the errors of its operands).
+ * The result is only used if every value inside its error bound rounds to the same digits, then it is exactly the result
+ * the BigDecimal path would give.
+ *
+ * Whenever the doubles can't decide something for sure, run returns ESCALATE and the plan must be evaluated with BigDecimal:
+ * - overflow or underflow
+ * - a decision that depends on digits the error bound doesn't cover (zero divisor, sign under a square root, tan near 90 degrees, 0^0)
+ * - a radian angle that could be a multiple of π/2 by the π constant, which Trig treats as an exact right angle (see nearRightAngle)
+ * Errors that are certain (like dividing by an exact 0) are returned with the same codes as ShuntingYard.applyOperation.
+ * An instance keeps the values of the constant subtrees of the plan (see PlanOptimizer) after its first run, since they only
+ * depend on the angle mode and the precision.
+ */
+final class DoubleEvaluator {
+
+	//returned by run when the plan has to be evaluated with BigDecimal
+	static final int ESCALATE = Integer.MIN_VALUE;
+	//more digits than this can't be guaranteed by a double, so there is no point in trying
+	static final int MAX_DIGITS = 15;
+
+	//unit roundoff: a correctly rounded operation is off by at most this, relative to its result
+	private static final double U = 0x1p-53;
+	//java.lang.Math trig and pow functions are within 1 ulp, which is at most twice the unit roundoff
+	private static final double ULP = 2 * U;
+	private static final double DEGREES = Math.PI / 180;
+	//Trig.PI_CONSTANT / 2 is RIGHT_ANGLE - RIGHT_ANGLE_ERROR
+	private static final double RIGHT_ANGLE = Math.PI / 2;
+	private static final double RIGHT_ANGLE_ERROR = new BigDecimal(RIGHT_ANGLE).subtract(Trig.PI_CONSTANT.divide(BigDecimal.valueOf(2))).doubleValue();
+	//the powers of ten that are exact doubles
+	static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final Operator[] OPERATORS = Operator.values();
+
+	private final CompiledExpression plan;
+	private final boolean degreeMode;
+	//largest scale a value rounded by the BigDecimal path can have (see ShuntingYard.retryPrecision)
+	private final double roundedScale;
+
+	//the stack: value, absolute error bound, and a bound on the (absolute) scale of the BigDecimal value
+	private final double[] vals;
+	private final double[] errs;
+	private final double[] scales;
+	private int size;
+	//the temps of the plan (see PlanOptimizer), the same way. The value of a CONST doesn't change from one run to the next,
+	//so once it has been computed it's reused by the following runs
+	private final double[] tempVals;
+	private final double[] tempErrs;
+	private final double[] tempScales;
+	private final boolean[] computed;
+
+	/**
+	 * Constructor
+	 * @param plan the plan to evaluate
+	 * @param degreeMode true if angles are in degrees
+	 * @param precision the requested precision, which the BigDecimal path would evaluate with
+	 */
+	DoubleEvaluator(CompiledExpression plan, boolean degreeMode, int precision) {
+		this.plan = plan;
+		this.degreeMode = degreeMode;
+		roundedScale = Math.max(ShuntingYard.MAX_PRECISION, precision + ShuntingYard.GUARD_DIGITS) + 2;
+		vals = new double[plan.maxDepth];
+		errs = new double[plan.maxDepth];
+		scales = new double[plan.maxDepth];
+		tempVals = new double[plan.temps];
+		tempErrs = new double[plan.temps];
+		tempScales = new double[plan.temps];
+		computed = new boolean[plan.temps];
+	}
+
+	/**
+	 * Bound on the error of converting a value to the nearest double
+	 * @param val the value
+	 * @param dbl val.doubleValue()
+	 * @return 0 if the double is exactly val, the bound otherwise
+	 */
+	static double representationError(BigDecimal val, double dbl) {
+		if (val.scale() <= 0 && val.precision() - val.scale() <= MAX_DIGITS) {
+			return 0; //integers this small are exact
+		}
+		return Math.abs(dbl) * U;
+	}
+
+	/**
+	 * Same as representationError, for a value given as unscaled * 10^-scale (for numbers read from text, without building them)
+	 * @param scale the scale of the value
+	 * @param dbl the nearest double to the value, or the result of one correctly rounded operation on exact doubles
+	 * @return 0 if the double is exactly the value, the bound otherwise
+	 */
+	static double representationError(int scale, double dbl) {
+		if (scale <= 0 && Math.abs(dbl) < 0x1p53) {
+			return 0; //an integer below 2^53 is a double, and rounding can't move it past 2^53
+		}
+		return Math.abs(dbl) * U;
+	}
+
+	/**
+	 * Same as representationError, but checks exactly if the double is the value (for literals, which are converted once)
+	 * @param val the value
+	 * @param dbl val.doubleValue()
+	 * @return 0 if the double is exactly val, the bound otherwise
+	 */
+	static double exactError(BigDecimal val, double dbl) {
+		if (Double.isFinite(dbl) && new BigDecimal(dbl).compareTo(val) == 0) {
+			return 0;
+		}
+		return Math.abs(dbl) * U;
+	}
+
+	/**
+	 * Checks if a double can stand for a value, it can't if it overflowed or lost digits to underflow
+	 * @param dbl the double
+	 * @return true if it can be used
+	 */
+	static boolean isUsable(double dbl) {
+		return Double.isFinite(dbl) && (dbl == 0 || Math.abs(dbl) >= Double.MIN_NORMAL);
+	}
+
+	/**
+	 * Runs the plan on doubles
+	 * precondition: variables has a value for every slot
+	 * postcondition: on success, the result is on the stack (see result)
+	 * @param variables the value of each variable slot
+	 * @return 0 on success, ESCALATE if the BigDecimal path is needed, otherwise the error code of ShuntingYard.applyOperation
+	 */
+	int run(BigDecimal[] variables) {
+		return run(variables, null, null, null);
+	}
+
+	/**
+	 * Runs the plan on doubles, with variables that are already doubles (so many rows can be evaluated without converting BigDecimals)
+	 * precondition: the arrays have a value for every slot, values are usable (see isUsable)
+	 * postcondition: on success, the result is on the stack (see result)
+	 * @param values the value of each variable slot
+	 * @param errors the bound on the error of each value, from the exact value of the variable
+	 * @param scales the (absolute) scale of the exact value of each variable
+	 * @return 0 on success, ESCALATE if the BigDecimal path is needed, otherwise the error code of ShuntingYard.applyOperation
+	 */
+	int run(double[] values, double[] errors, double[] scales) {
+		return run(null, values, errors, scales);
+	}
+
+	/**
+	 * Same as run, with the variables either as BigDecimals (variables isn't null) or as doubles
+	 */
+	private int run(BigDecimal[] variables, double[] values, double[] errors, double[] scales) {
+		if (!plan.doubleSafe) {
+			return ESCALATE;
+		}
+		size = 0;
+		int[] program = plan.program;
+		for (int pc = 0; pc < program.length; pc++) {
+			int instr = program[pc];
+			int arg = instr >>> 2;
+			int errcode;
+			switch (instr & 3) {
+				case CompiledExpression.PUSH:
+					errcode = push(plan.literalValues[arg], plan.literalErrors[arg], plan.literalScales[arg]);
+					break;
+				case CompiledExpression.LOAD:
+					if (variables == null) {
+						errcode = push(values[arg], errors[arg], scales[arg]);
+						break;
+					}
+					BigDecimal var = variables[arg];
+					double dbl = var.doubleValue();
+					errcode = push(dbl, representationError(var, dbl), Math.abs(var.scale()));
+					break;
+				case CompiledExpression.TEMP:
+					int t = arg >>> 2;
+					errcode = 0;
+					switch (arg & 3) {
+						case CompiledExpression.REUSE:
+							errcode = push(tempVals[t], tempErrs[t], tempScales[t]);
+							break;
+						case CompiledExpression.CONST:
+							if (computed[t]) {
+								errcode = push(tempVals[t], tempErrs[t], tempScales[t]);
+								pc = plan.constantEnds[t] - 1;
+							}
+							break;
+						default: //SAVE or END
+							tempVals[t] = this.vals[size - 1];
+							tempErrs[t] = this.errs[size - 1];
+							tempScales[t] = this.scales[size - 1];
+							computed[t] = (arg & 3) == CompiledExpression.END;
+							break;
+					}
+					break;
+				default:
+					errcode = apply(OPERATORS[arg]);
+					break;
+			}
+			if (errcode != 0) {
+				return errcode;
+			}
+		}
+		return size == 1 ? 0 : ESCALATE; //let the BigDecimal path report a broken plan
+	}
+
+	/**
+	 * Rounds the result, if the error bound allows it
+	 * precondition: run returned 0
+	 * @param mc the precision and rounding wanted
+	 * @return the rounded result (its trailing zeros can vary, only its value is guaranteed), or null if the error bound can't guarantee the digits
+	 */
+	BigDecimal result(MathContext mc) {
+		double val = vals[0];
+		double err = errs[0];
+		BigDecimal ret = roundQuickly(val, err, mc);
+		if (ret != null) {
+			return ret;
+		}
+		ret = new BigDecimal(val).round(mc);
+		if (err != 0) {
+			//the ends of the interval are rounded outwards, so the exact result is surely inside
+			if (new BigDecimal(Math.nextDown(val - err)).round(mc).compareTo(ret) != 0
+					|| new BigDecimal(Math.nextUp(val + err)).round(mc).compareTo(ret) != 0) {
+				return null;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Rounds without expanding the doubles to BigDecimal: scales the value so the digits to keep are its integer part,
+	 * and if the whole error interval (with the error of scaling) is well inside the same rounding step, that's the result
+	 * @return the rounded result, or null if it's too close to call this way (result then checks exactly)
+	 */
+	private static BigDecimal roundQuickly(double val, double err, MathContext mc) {
+		int digits = mc.getPrecision();
+		if (val == 0 || digits > MAX_DIGITS || mc.getRoundingMode() != RoundingMode.HALF_EVEN) {
+			return null;
+		}
+		//val ~ n * 10^exponent with n of digits digits (log10 can be off by one, then n has the wrong length and this gives up)
+		int exponent = (int) Math.floor(Math.log10(Math.abs(val))) - digits + 1;
+		if (exponent < -22 || exponent > 22) {
+			return null;
+		}
+		double scaled = exponent >= 0 ? val / POWERS_OF_TEN[exponent] : val * POWERS_OF_TEN[-exponent];
+		double scaledErr = exponent >= 0 ? err / POWERS_OF_TEN[exponent] : err * POWERS_OF_TEN[-exponent];
+		double slack = scaledErr + (Math.abs(scaled) + scaledErr) * ULP; //both scalings are off by at most U
+		double n = Math.rint(scaled);
+		double magnitude = Math.abs(n);
+		//below a power of ten the rounding steps are 10 times smaller, so the interval must not reach it
+		if (Math.abs(scaled - n) + slack >= 0.5 || Math.abs(scaled) - slack < POWERS_OF_TEN[digits - 1] || magnitude >= POWERS_OF_TEN[digits]) {
+			return null;
+		}
+		return BigDecimal.valueOf((long) n, -exponent);
+	}
+
+	private int push(double val, double err, double scale) {
+		if (!isUsable(val) || !Double.isFinite(err)) {
+			return ESCALATE;
+		}
+		vals[size] = val;
+		errs[size] = err;
+		scales[size] = scale;
+		size++;
+		return 0;
+	}
+
+	/**
+	 * Applies an operator to the top of the stack, like ShuntingYard.applyOperation does
+	 * @param op the operator
+	 * @return 0 on success, ESCALATE, or the error code
+	 */
+	private int apply(Operator op) {
+		//first is the top value, second the one below it
+		double first = vals[size - 1];
+		double firstErr = errs[size - 1];
+		double firstScale = scales[size - 1];
+		if (op.numInputs == 1) {
+			size--;
+			switch (op) {
+				case NEG:
+					return push(-first, firstErr, firstScale);
+				case SQRT:
+					return sqrt(first, firstErr, firstScale);
+				case SIN:
+					return sin(first, firstErr);
+				case COS:
+					if (degreeMode) { //same as the BigDecimal path: cos(a) = sin(90-a)
+						double shifted = 90 - first;
+						return sin(shifted, firstErr + roundingError(90, -first, shifted));
+					}
+					if (nearRightAngle(first, firstErr)) {
+						return ESCALATE;
+					}
+					double ret = Math.cos(first);
+					return push(ret, firstErr + Math.abs(ret) * ULP, roundedScale);
+				case TAN:
+					return tan(first, firstErr);
+				default:
+					return 3;
+			}
+		}
+		double second = vals[size - 2];
+		double secondErr = errs[size - 2];
+		double secondScale = scales[size - 2];
+		size -= 2;
+		double ret;
+		switch (op) {
+			case DEC:
+			case ADD:
+				ret = second + first;
+				return push(ret, secondErr + firstErr + roundingError(second, first, ret), Math.max(secondScale, firstScale));
+			case SUB:
+				ret = second - first;
+				return push(ret, secondErr + firstErr + roundingError(second, -first, ret), Math.max(secondScale, firstScale));
+			case MULT:
+				ret = second * first;
+				if (ret == 0 && second != 0 && first != 0) {
+					return ESCALATE; //underflow
+				}
+				double err = Math.abs(second) * firstErr + Math.abs(first) * secondErr + secondErr * firstErr;
+				return push(ret, err + Math.abs(Math.fma(second, first, -ret)), secondScale + firstScale);
+			case DIV:
+				return divide(second, secondErr, secondScale, first, firstErr, firstScale);
+			case POW:
+				return pow(second, secondErr, secondScale, first, firstErr, firstScale);
+			default:
+				return 3;
+		}
+	}
+
+	/**
+	 * @return the exact error of the double sum a + b (Knuth's TwoSum)
+	 */
+	private static double roundingError(double a, double b, double sum) {
+		double bVirtual = sum - a;
+		return Math.abs((a - (sum - bVirtual)) + (b - bVirtual));
+	}
+
+	private int divide(double second, double secondErr, double secondScale, double first, double firstErr, double firstScale) {
+		if (first == 0 && firstErr == 0) {
+			return 1; //division by zero (Undef.)
+		}
+		double divisor = Math.abs(first) - firstErr;
+		if (divisor <= 0) {
+			return ESCALATE; //the divisor could be 0
+		}
+		double ret = second / first;
+		if (ret == 0 && second != 0) {
+			return ESCALATE; //underflow
+		}
+		//the remainder second - ret * first is exact, so the quotient is exact when it is 0
+		double err = Math.fma(-ret, first, second) == 0 ? 0 : Math.abs(ret) * U;
+		err += (secondErr + Math.abs(ret) * firstErr) / divisor * (1 + ULP);
+		return push(ret, err, Math.max(secondScale + firstScale, scaleOfRounded(ret)));
+	}
+
+	private int sqrt(double first, double firstErr, double firstScale) {
+		if (first < 0 && -first > firstErr) {
+			return 2; //square root of a negative number (Math error)
+		}
+		if (first == 0 && firstErr == 0) {
+			return push(0, 0, firstScale);
+		}
+		double low = first - firstErr;
+		if (low <= 0) {
+			return ESCALATE; //the sign is unsure, or the error is too large to be bounded
+		}
+		double ret = Math.sqrt(first);
+		double err = Math.fma(ret, ret, -first) == 0 ? 0 : ret * U;
+		err += firstErr / (Math.sqrt(low) + ret) * (1 + ULP); //|sqrt(x+d)-sqrt(x)| = |d|/(sqrt(x+d)+sqrt(x))
+		return push(ret, err, Math.max(firstScale, scaleOfRounded(ret)));
+	}
+
+	private int sin(double first, double firstErr) {
+		if (!degreeMode) {
+			if (nearRightAngle(first, firstErr)) {
+				return ESCALATE;
+			}
+			double ret = Math.sin(first);
+			return push(ret, firstErr + Math.abs(ret) * ULP, roundedScale);
+		}
+		//reduce like the BigDecimal path, so angles like 180 give an exact 0. The remainders are exact
+		double angle = Math.abs(first) % 360;
+		boolean negate = first < 0;
+		if (angle > 180) {
+			negate = !negate;
+		}
+		angle %= 180;
+		if (angle == 0 && firstErr == 0) {
+			return push(0, 0, 0);
+		}
+		double radians = angle * DEGREES;
+		double ret = Math.sin(radians);
+		//DEGREES and the multiplication each add a rounding error
+		double err = firstErr * DEGREES + radians * 3 * U + Math.abs(ret) * ULP;
+		return push(negate ? -ret : ret, err, roundedScale);
+	}
+
+	/**
+	 * Checks if an angle in radians could be a nonzero multiple of π/2 by the π constant. Trig gives those an exact result
+	 * (sin(609156π) is 0), which isn't the sine of the angle since the constant isn't π, so the error bound of Math.sin doesn't hold
+	 * @param angle the angle
+	 * @param err the bound on its error
+	 * @return true if the interval of the angle is close enough to such a multiple to contain it
+	 */
+	private static boolean nearRightAngle(double angle, double err) {
+		double k = Math.rint(angle / RIGHT_ANGLE);
+		if (k == 0) {
+			return false; //0 is exact for both
+		}
+		//angle - k*Trig.PI_CONSTANT/2 = (angle - k*RIGHT_ANGLE) + k*RIGHT_ANGLE_ERROR, each part and the sum rounded once
+		double a = Math.fma(-k, RIGHT_ANGLE, angle);
+		double b = k * RIGHT_ANGLE_ERROR;
+		return Math.abs(a + b) <= err + (Math.abs(a) + Math.abs(b)) * 4 * U;
+	}
+
+	private int tan(double first, double firstErr) {
+		if (!degreeMode) {
+			if (nearRightAngle(first, firstErr)) {
+				return ESCALATE;
+			}
+			double ret = Math.tan(first);
+			if (Math.abs(ret) > 1e8) {
+				return ESCALATE; //too close to a pole to tell
+			}
+			//the derivative of tan is 1+tan^2
+			double err = (1 + ret * ret) * firstErr * (1 + 1e-6) + Math.abs(ret) * ULP;
+			return push(ret, err, roundedScale);
+		}
+		double angle = Math.abs(first) % 180;
+		if (angle == 90 && firstErr == 0) {
+			return 1; //tan of 90 degrees (Undef.)
+		}
+		double radians = angle * DEGREES;
+		double radiansErr = firstErr * DEGREES + radians * 3 * U;
+		if (Math.abs(angle - 90) * DEGREES <= 2 * radiansErr + 1e-8) {
+			return ESCALATE; //too close to 90 degrees to tell
+		}
+		double ret = Math.tan(radians);
+		double err = (1 + ret * ret) * radiansErr * (1 + 1e-6) + Math.abs(ret) * ULP;
+		return push(first < 0 ? -ret : ret, err, roundedScale);
+	}
+
+	private int pow(double second, double secondErr, double secondScale, double first, double firstErr, double firstScale) {
+		if (first == 0 && firstErr == 0) {
+			if (second == 0 && secondErr == 0) {
+				return 1; //0^0 (Undef.)
+			}
+			if (Math.abs(second) <= secondErr) {
+				return ESCALATE; //the base could be 0
+			}
+			return push(1, 0, 0);
+		}
+		boolean integer = firstErr == 0 && first == Math.rint(first);
+		double base = Math.abs(second);
+		if (second == 0 && secondErr == 0) {
+			if (first - firstErr > 0) {
+				return push(0, 0, secondScale);
+			}
+			if (first + firstErr < 0) {
+				return 2; //1/0 from a negative exponent (Math error)
+			}
+			return ESCALATE;
+		}
+		if (base <= secondErr) {
+			return ESCALATE; //the base could change sign
+		}
+		if (second < 0 && !integer) {
+			if (firstErr == 0) {
+				return 2; //negative base with a fraction exponent (Math error)
+			}
+			return ESCALATE; //the exponent could be an integer
+		}
+		double ret = Math.pow(second, first);
+		if (!isUsable(ret) || ret == 0) {
+			return ESCALATE; //the base isn't 0 here, so 0 is an underflow
+		}
+		double magnitude = Math.abs(ret);
+		double err;
+		double scale;
+		if (integer && first >= 0) {
+			scale = Math.max(secondScale * first, scaleOfRounded(ret)); //exact in the BigDecimal path while it is short, rounded after
+		} else {
+			scale = scaleOfRounded(ret);
+		}
+		if (secondErr == 0 && firstErr == 0) {
+			//integer powers of integers are exact while they are small enough for ulp < 1
+			boolean exact = integer && second == Math.rint(second) && magnitude < 0x1p52 && ret == Math.rint(ret);
+			err = exact ? 0 : magnitude * ULP;
+		} else {
+			//bound the derivatives over the intervals instead of taking the difference of the corner values: an error under half
+			//an ulp is lost when base + secondErr is rounded, then the corners are magnitude and the error looks like 0
+			//(like the exponent of (e-17^7*tan(2))^(sin(93.112)/633192-3), whose 15 digits were wrong by 1)
+			double low = Math.nextDown(base - secondErr);
+			double high = Math.nextUp(base + secondErr);
+			if (low <= 0) {
+				return ESCALATE;
+			}
+			double lowExponent = Math.nextDown(first - firstErr);
+			double highExponent = Math.nextUp(first + firstErr);
+			//x^y is monotonic in x and y for x > 0, so it's largest at a corner (each pow is within 1 ulp)
+			double corner = Math.max(Math.max(Math.pow(low, lowExponent), Math.pow(low, highExponent)),
+					Math.max(Math.pow(high, lowExponent), Math.pow(high, highExponent))) * (1 + 2 * ULP);
+			//d(x^y)/dy = x^y*ln(x) and d(x^y)/dx = y*x^y/x, |ln(x)| is largest at an end too
+			double log = Math.max(Math.abs(Math.log(low)), Math.abs(Math.log(high)));
+			double exponent = Math.max(Math.abs(lowExponent), Math.abs(highExponent));
+			err = corner * (log * firstErr + exponent * secondErr / low) * (1 + 1e-6) + magnitude * ULP;
+		}
+		return push(ret, err, scale);
+	}
+
+	/**
+	 * @return bound on the scale of a result the BigDecimal path rounded to its working precision
+	 */
+	private double scaleOfRounded(double val) {
+		return val == 0 ? roundedScale : roundedScale + Math.abs(Math.floor(Math.log10(Math.abs(val))));
+	}
+}
@@ -0,0 +1,65 @@
+package shuntingyardcalc;
+
+/**
+ * Limits on the work of one evaluation, so a single request can't hold a shared thread or fill its memory.
+ * Before each operation, the digits of its result and the work it takes are estimated from the size of its operands
+ * (see ShuntingYard.applyOperation), and the evaluation fails with CalculatorException.TOO_LARGE as soon as it would go over:
+ * - maxDigits: digits of any value, which bounds the memory of each one
+ * - maxOperations: estimated digit operations of the whole evaluation (retries at a higher precision included), which bounds the CPU time
+ * - timeoutMillis: wall clock time of the evaluation, checked before each operation. 0 for none
+ * The double tier (DoubleEvaluator) costs the same for any operand, and its values fit in a double, so the budget only applies to the BigDecimal path.
+ * Immutable, so one budget can be shared by every session.
+ */
+public final class EvaluationBudget {
+
+	//values up to the overflow limit (10^99999), and a few seconds of operations at most, without a timeout
+	public static final EvaluationBudget DEFAULT = new EvaluationBudget(100_000, 10_000_000_000L, 0);
+	//highest precision a request can ask for: at 20000 digits a square root is already a third of a second, and a trig function over maxOperations
+	public static final int MAX_PRECISION = 20_000;
+
+	private final int maxDigits;
+	private final long maxOperations;
+	private final long timeoutMillis;
+
+	/**
+	 * Constructor
+	 * @param maxDigits max digits of a value
+	 * @param maxOperations max estimated digit operations of an evaluation
+	 * @param timeoutMillis max wall clock time of an evaluation, 0 for none
+	 */
+	public EvaluationBudget(int maxDigits, long maxOperations, long timeoutMillis) {
+		if (maxDigits <= 0 || maxOperations <= 0 || timeoutMillis < 0) {
+			throw new IllegalArgumentException("the limits must be positive");
+		}
+		this.maxDigits = maxDigits;
+		this.maxOperations = maxOperations;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @param timeoutMillis max wall clock time of an evaluation, 0 for none
+	 * @return a budget with the same limits and this timeout
+	 */
+	public EvaluationBudget withTimeout(long timeoutMillis) {
+		return new EvaluationBudget(maxDigits, maxOperations, timeoutMillis);
+	}
+
+	public int getMaxDigits() {
+		return maxDigits;
+	}
+
+	/**
+	 * @return the highest precision a request (like one to CalculatorServer) can ask for with this budget: maxDigits, up to MAX_PRECISION
+	 */
+	public int getMaxPrecision() {
+		return Math.min(maxDigits, MAX_PRECISION);
+	}
+
+	public long getMaxOperations() {
+		return maxOperations;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
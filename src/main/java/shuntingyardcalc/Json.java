@@ -0,0 +1,233 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The little JSON that CalculatorServer needs: reading a flat object (no nested objects or arrays), and quoting strings.
+ * Strings are read as String, numbers as BigDecimal (so an exact value like 0.1 stays exact), true and false as Boolean, null as null.
+ */
+final class Json {
+
+	private final String text;
+	private int pos;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Reads an object whose values are all strings, numbers, booleans or null
+	 * @param text the JSON text, ex: {"expression": "2+2", "precision": 20}
+	 * @return its members, by name (the last one wins if a name is repeated)
+	 * @throws IllegalArgumentException if it isn't such an object
+	 */
+	static Map<String, Object> parseObject(String text) {
+		var json = new Json(text);
+		Map<String, Object> ret = new HashMap<>();
+		json.expect('{');
+		if (json.peek() == '}') {
+			json.pos++;
+		} else {
+			do {
+				String name = json.string();
+				json.expect(':');
+				ret.put(name, json.value());
+			} while (json.next(',', '}') == ',');
+		}
+		if (json.peek() != 0) {
+			throw new IllegalArgumentException("unexpected text after the object");
+		}
+		return ret;
+	}
+
+	/**
+	 * Appends a string as a JSON string
+	 * @param sb where to append it
+	 * @param str the string
+	 */
+	static void quote(StringBuilder sb, String str) {
+		sb.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+					break;
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * @return the next character that isn't whitespace (without reading it), 0 at the end
+	 */
+	private char peek() {
+		while (pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				return c;
+			}
+			pos++;
+		}
+		return 0;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw new IllegalArgumentException("expected '" + c + "' at " + pos);
+		}
+		pos++;
+	}
+
+	/**
+	 * Reads the next character, which has to be one of two
+	 */
+	private char next(char first, char second) {
+		char c = peek();
+		if (c != first && c != second) {
+			throw new IllegalArgumentException("expected '" + first + "' or '" + second + "' at " + pos);
+		}
+		pos++;
+		return c;
+	}
+
+	private Object value() {
+		char c = peek();
+		if (c == '"') {
+			return string();
+		}
+		if (c == '-' || (c >= '0' && c <= '9')) {
+			return number();
+		}
+		for (String word : new String[]{"true", "false", "null"}) {
+			if (text.startsWith(word, pos)) {
+				pos += word.length();
+				return word.equals("null") ? null : Boolean.valueOf(word.equals("true"));
+			}
+		}
+		throw new IllegalArgumentException("expected a string, a number, true, false or null at " + pos);
+	}
+
+	private String string() {
+		expect('"');
+		var sb = new StringBuilder();
+		while (true) {
+			if (pos >= text.length()) {
+				throw new IllegalArgumentException("unterminated string");
+			}
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c < 0x20) {
+				throw new IllegalArgumentException("control character in a string at " + (pos - 1));
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			char escaped = pos < text.length() ? text.charAt(pos++) : 0;
+			switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(escaped);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) {
+						throw new IllegalArgumentException("bad \\u escape at " + (pos - 2));
+					}
+					try {
+						sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException ex) {
+						throw new IllegalArgumentException("bad \\u escape at " + (pos - 2));
+					}
+					pos += 4;
+					break;
+				default:
+					throw new IllegalArgumentException("bad escape at " + (pos - 2));
+			}
+		}
+	}
+
+	private BigDecimal number() {
+		int start = pos;
+		//-?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+		if (text.charAt(pos) == '-') {
+			pos++;
+		}
+		if (pos < text.length() && text.charAt(pos) == '0') {
+			pos++;
+		} else if (!digits()) {
+			throw new IllegalArgumentException("bad number at " + start);
+		}
+		if (pos < text.length() && text.charAt(pos) == '.') {
+			pos++;
+			if (!digits()) {
+				throw new IllegalArgumentException("bad number at " + start);
+			}
+		}
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+				pos++;
+			}
+			if (!digits()) {
+				throw new IllegalArgumentException("bad number at " + start);
+			}
+		}
+		try {
+			return new BigDecimal(text.substring(start, pos));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("bad number at " + start); //an exponent that doesn't fit in an int
+		}
+	}
+
+	/**
+	 * Reads digits
+	 * @return true if there was at least one
+	 */
+	private boolean digits() {
+		int start = pos;
+		while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+			pos++;
+		}
+		return pos > start;
+	}
+}
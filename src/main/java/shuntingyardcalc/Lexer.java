@@ -0,0 +1,300 @@
+package shuntingyardcalc;
+
+/**
+ * Splits a whole expression into tokens in a single pass over its characters, without building strings.
+ * Recognizes the same tokens as the calculator buttons: digits, + - * / ^ ( ) . sin cos tan sqrt neg, and the constants π, e, Ans.
+ * It can also be given variable names (like the columns of a batch), a name is read as the longest word that matches
+ * so a variable "ex" isn't e*x, but a variable "s" doesn't hide sin. Spaces are skipped.
+ * 
+ * Usage: call next() until it returns END, and read the token with start()/end(), operator(), name() or variable()
+ * The key by key input sends whole tokens instead, which classify and operatorOf recognize without allocating.
+ */
+final class Lexer {
+
+	static final int INVALID = -1; //unrecognized character
+	static final int END = 0;
+	static final int NUMBER = 1; //a run of digits, see start() and end()
+	static final int OPERATOR = 2; //see operator()
+	static final int CONSTANT = 3; //see name()
+	static final int VARIABLE = 4; //see variable()
+
+	private static final String[] FUNCTIONS = {"sqrt", "sin", "cos", "tan", "neg"};
+	private static final Operator[] FUNCTION_OPS = {Operator.SQRT, Operator.SIN, Operator.COS, Operator.TAN, Operator.NEG};
+	private static final String[] CONSTANTS = {"Ans", "π", "e"};
+
+	private static final String[] NO_VARIABLES = {};
+
+	private final CharSequence text;
+	private final String[] variables;
+	private int pos;
+	private int start;
+	private int end;
+	private Operator op;
+	private String name;
+	private int variable;
+
+	/**
+	 * Constructor, starts at the first character
+	 * @param text the expression
+	 */
+	Lexer(CharSequence text) {
+		this(text, NO_VARIABLES);
+	}
+
+	/**
+	 * Constructor, starts at the first character
+	 * @param text the expression
+	 * @param variables names of the variables, a name must not be a function or a constant
+	 */
+	Lexer(CharSequence text, String[] variables) {
+		this.text = text;
+		this.variables = variables;
+		pos = 0;
+	}
+
+	/**
+	 * Checks if a name can be used for a variable: letters, digits and _, starting with a letter, and not the name of a function or constant
+	 * @param name the name
+	 * @return true if it can
+	 */
+	static boolean isVariableName(CharSequence name) {
+		return isWord(name) && !isOneOf(FUNCTIONS, name) && !isOneOf(CONSTANTS, name);
+	}
+
+	/**
+	 * Classifies a whole token, like the ones the calculator buttons send ("12", "sin", "π")
+	 * @param token the token
+	 * @return NUMBER if it's only digits, OPERATOR, CONSTANT (π, e or Ans), VARIABLE if it can be the name of one, or INVALID
+	 */
+	static int classify(CharSequence token) {
+		int n = token.length();
+		if (n == 0) {
+			return INVALID;
+		}
+		int digits = 0;
+		while (digits < n && token.charAt(digits) >= '0' && token.charAt(digits) <= '9') {
+			digits++;
+		}
+		if (digits > 0) {
+			return digits == n ? NUMBER : INVALID;
+		}
+		if (operatorOf(token) != null) {
+			return OPERATOR;
+		}
+		if (isOneOf(CONSTANTS, token)) {
+			return CONSTANT;
+		}
+		return isWord(token) ? VARIABLE : INVALID;
+	}
+
+	/**
+	 * Gets the operator for a whole token
+	 * @param token the token, like "+" or "sqrt"
+	 * @return the operator, or null if the token isn't one
+	 */
+	static Operator operatorOf(CharSequence token) {
+		if (token.length() == 1) {
+			return symbol(token.charAt(0));
+		}
+		for (int i = 0; i < FUNCTIONS.length; i++) {
+			if (FUNCTIONS[i].contentEquals(token)) {
+				return FUNCTION_OPS[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if name is letters, digits and _, starting with a letter
+	 */
+	private static boolean isWord(CharSequence name) {
+		if (name.length() == 0 || !isLetter(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '_') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isOneOf(String[] words, CharSequence token) {
+		for (String word : words) {
+			if (word.contentEquals(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Reads the next token
+	 * @return the kind of token: END, NUMBER, OPERATOR, CONSTANT, VARIABLE, or INVALID
+	 */
+	int next() {
+		int len = text.length();
+		while (pos < len && text.charAt(pos) == ' ') {
+			pos++;
+		}
+		start = pos;
+		if (pos == len) {
+			end = pos;
+			return END;
+		}
+		char c = text.charAt(pos);
+		if (c >= '0' && c <= '9') {
+			do {
+				pos++;
+			} while (pos < len && text.charAt(pos) >= '0' && text.charAt(pos) <= '9');
+			end = pos;
+			return NUMBER;
+		}
+		op = symbol(c);
+		if (op != null) {
+			end = ++pos;
+			return OPERATOR;
+		}
+		//longest variable name here, it wins over a function or constant that is a prefix of it
+		int longest = 0;
+		for (int i = 0; i < variables.length; i++) {
+			int n = variables[i].length();
+			if (n > longest && startsWith(variables[i])) {
+				longest = n;
+				variable = i;
+			}
+		}
+		if (longest > 0 && !startsWithLonger(FUNCTIONS, longest) && !startsWithLonger(CONSTANTS, longest)) {
+			pos += longest;
+			end = pos;
+			return VARIABLE;
+		}
+		for (int i = 0; i < FUNCTIONS.length; i++) {
+			if (matches(FUNCTIONS[i])) {
+				op = FUNCTION_OPS[i];
+				return OPERATOR;
+			}
+		}
+		for (String constant : CONSTANTS) {
+			if (matches(constant)) {
+				name = constant;
+				return CONSTANT;
+			}
+		}
+		end = pos;
+		return INVALID;
+	}
+
+	/**
+	 * @return index of the first character of the last token
+	 */
+	int start() {
+		return start;
+	}
+
+	/**
+	 * @return index after the last character of the last token
+	 */
+	int end() {
+		return end;
+	}
+
+	/**
+	 * precondition: the last token was OPERATOR
+	 * @return the operator
+	 */
+	Operator operator() {
+		return op;
+	}
+
+	/**
+	 * precondition: the last token was CONSTANT
+	 * @return the name of the constant, as it is written on the button
+	 */
+	String name() {
+		return name;
+	}
+
+	/**
+	 * precondition: the last token was VARIABLE
+	 * @return the index of the variable in the names given to the constructor
+	 */
+	int variable() {
+		return variable;
+	}
+
+	/**
+	 * Gets the operator for a single character symbol
+	 * @param c the character
+	 * @return the operator, or null if c isn't one
+	 */
+	static Operator symbol(char c) {
+		switch (c) {
+			case '+':
+				return Operator.ADD;
+			case '-':
+				return Operator.SUB;
+			case '*':
+				return Operator.MULT;
+			case '/':
+				return Operator.DIV;
+			case '^':
+				return Operator.POW;
+			case '(':
+				return Operator.OPEN_BRAC;
+			case ')':
+				return Operator.CLOSE_BRAC;
+			case '.':
+				return Operator.DEC;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Consumes a word if the text continues with it
+	 * @param word the word
+	 * @return true if it was consumed
+	 */
+	private boolean matches(String word) {
+		if (!startsWith(word)) {
+			return false;
+		}
+		pos += word.length();
+		end = pos;
+		return true;
+	}
+
+	/**
+	 * @return true if the text continues with word, without consuming it
+	 */
+	private boolean startsWith(String word) {
+		int n = word.length();
+		if (pos + n > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (text.charAt(pos + i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the text continues with one of the words that is longer than length
+	 */
+	private boolean startsWithLonger(String[] words, int length) {
+		for (String word : words) {
+			if (word.length() > length && startsWith(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,109 @@
+package shuntingyardcalc;
+
+/*
+	Rule for numerical values:
+	We can append a numerical value only if the number of operations in the stack with 2 inputs are equal to the current number of elements in valStack.  
+	(This is checked for each request)
+	- Also, This condition must be fufilled before evaluating.
+	This means that each operation must have the right number of parameters except one, which will be satisfied by appending a digit.
+ */
+//Enumeraotr for operators. Params: Precidence, is left to right, number of inputs
+enum Operator {
+	OPEN_BRAC(Integer.MAX_VALUE, true, 1),
+	/*
+	Open bracket "(" is allowed to be appended anywhere. 
+	When not next to an operator, or next to a closed bracket, multiplication is implied:
+		a(b) = a*(b) or (4)(5) = 4 * 5
+	This also means weak grouping is implied, i.e.
+		a/b(c) = c*a/b
+	This rule translates to pushing a multiplication operation before the operator only if 
+
+
+	We push open brackets to the stack as usual but no other operator can "pop" brackets out except for closing brackets. (This ensures brackets are prioritized in order of operations)
+
+	Mismatched Brackets:
+		- empty brackets "()" are not allowed
+		- Missing brackets are fixed automatically
+	 */
+	CLOSE_BRAC(Integer.MIN_VALUE, false, 0),
+	/*
+	Closed brackets will cause all operators in the stack to be popped and evaluated, until the first open bracket it sees, which will cause the pair to be removed.
+	For valid syntax, the number of operators which need 2 inputs must be equal to one less than the number of variables in varStack, and the varStack needs at least 1 element.
+	See Open Bracket for more.
+	 */
+	DEC(5, false, 2),
+	/*
+	The generic rule for operators with 2 numInputs are described here:
+		Can add to operator stack only if, when added to the operator stack, the number of operators in the stack which take 2 inputs will be equal to the valStack's size. 
+		Since we enforce this rule for each request, this rule is enough to ensure the entire request is valid.
+		Also, such an operator must not be "trailing" (which is handled by brackets or the final evaluation)
+
+	Decimals are treated as regular operators. 
+	However, Decimals in particular may not be consecutive in the operator stack (causing more than 1 decimal per number), and can only be attatcked to a digit, i.e. (3).5 and 3.(5)is invalid
+	 */
+	ADD(1, false, 2),
+	/*
+	Follows the generic rule for 2 inputs (see decimal)
+	 */
+	SUB(1, false, 2),
+	/*
+		Follows the generic rule for 2 inputs (see decimal)
+		Converted to negative sign if a request to append it violates the rule.
+	 */
+	MULT(2, false, 2),
+	/*
+		Follows the generic rule for 2 inputs (see decimal)
+	 */
+	DIV(2, false, 2),
+	/*
+		Follows the generic rule for 2 inputs (see decimal)
+		Division by zero is handled when the attempted valStack reduction fails
+	 */
+	SIN(4, true, 1),
+	/*
+	The generic rule for functions:
+		They are evaluated left to right if they have the same precidence: a^b^c != (a^b)^c
+		We treat order dependent operators as having higher precidence than themselves, so the rightmost operation is always evaluated first
+
+	The generic rule for functions with one input:
+		We can append them to the input without restrictions
+		They cannot be missing an input value (handled by brackets or the final evaluation)
+		When appended after a value, e.g. 2sin(4), interpret as implied brackets, i.e. 2(sin(4)) (See brackets section for details)
+	 */
+	COS(4, true, 1),
+	//Follows the generic rule for functions with one input (see sine)
+	TAN(4, true, 1),
+	//Follows the generic rule for functions with one input (see sine)
+	SQRT(4, true, 1),
+	//Follows the generic rule for functions with one input (see sine)
+	NEG(5, true, 1),
+	/*
+	A negative sign is treated as a function with one variable: f(x) = -x.
+	therefore it is treated as order dependent and has high precidence because the negative sign is strongly grouped with its value, just like digits are strongly grouped with each other.
+	Interpret a "-" as a negation if and only if the request to append "-" would result in a syntax error.
+	This works becuase trailing "-" (which is invalid syntax) is valid until the user tries to use another operator, like (5-*4)
+	This will be caught while appending the other operator.
+	a---b is treated as a-(-(-b))
+	 */
+	POW(3, true, 2),
+	//Follows the generic rule for functions, and the generic rule for operators with 2 inputs (see sine and decimal).
+	INVALID(0, false, 0);
+
+	public final int precidence; 
+	public final boolean isLeftToRight;
+	public final int numInputs;
+
+	/**
+	 * Constructor for Operators Sets the precidence, isLeftToRight,
+	 * numInputs respectively
+	 *
+	 * @param p
+	 * @param b
+	 * @param n
+	 */
+	private Operator(int p, boolean b, int n) {
+		isLeftToRight = b;
+		precidence = p;	
+		numInputs = n; 
+	}
+}
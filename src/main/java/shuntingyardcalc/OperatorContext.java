@@ -0,0 +1,75 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The settings the operator kernels of ShuntingYard work with: the working precision and the angle mode,
+ * with everything that depends on them (MathContexts, π/180) computed once.
+ * Built once per combination of settings (see of), so changing a setting is a lookup and applying an operator allocates nothing but its result.
+ * π/180 is only computed by the first trig function in degrees (it takes as long as π), the rest is immutable.
+ */
+final class OperatorContext {
+
+	private static final int MAX_CONTEXTS = 64; //the cache is emptied past this many, so any number of precisions can be asked for
+	private static final ConcurrentHashMap<Integer, OperatorContext> CONTEXTS = new ConcurrentHashMap<>();
+
+	final MathContext mc; //working precision, for the operations that round
+	final boolean degreeMode;
+	final MathContext trigContext; //working precision of the trig series, a few digits more than mc
+	private volatile BigDecimal radiansPerDegree; //π/180, to trigContext precision, null until it's used
+
+	private OperatorContext(int precision, boolean degreeMode) {
+		mc = new MathContext(precision, RoundingMode.HALF_EVEN);
+		this.degreeMode = degreeMode;
+		trigContext = new MathContext(precision + Trig.GUARD, RoundingMode.HALF_EVEN);
+	}
+
+	/**
+	 * Gets the context for a combination of settings, creating it the first time
+	 * @param precision the working precision
+	 * @param degreeMode true if angles are in degrees
+	 * @return the context
+	 */
+	static OperatorContext of(int precision, boolean degreeMode) {
+		int key = precision << 1 | (degreeMode ? 1 : 0);
+		OperatorContext ret = CONTEXTS.get(key);
+		if (ret == null) {
+			if (CONTEXTS.size() >= MAX_CONTEXTS) {
+				CONTEXTS.clear(); //the contexts in use are kept by their yards
+			}
+			ret = CONTEXTS.computeIfAbsent(key, k -> new OperatorContext(precision, degreeMode));
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets π/180, computing it the first time (two threads can both compute it, with the same result)
+	 * @return π/180, to trigContext precision
+	 * @throws ArithmeticException if the thread is interrupted while computing π
+	 */
+	BigDecimal radiansPerDegree() {
+		BigDecimal ret = radiansPerDegree;
+		if (ret == null) {
+			ret = Trig.pi(trigContext.getPrecision()).divide(BigDecimal.valueOf(180), trigContext);
+			radiansPerDegree = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return true if radiansPerDegree is already computed
+	 */
+	boolean hasRadiansPerDegree() {
+		return radiansPerDegree != null;
+	}
+
+	/**
+	 * @return the context with the same precision, in the other angle mode
+	 */
+	OperatorContext toggleAngleMeasure() {
+		return of(mc.getPrecision(), !degreeMode);
+	}
+}
@@ -0,0 +1,108 @@
+package shuntingyardcalc;
+
+import java.util.Arrays;
+
+/**
+ * Unsynchronized, array backed stack of operators, stored as their ordinals in a byte array.
+ * 
+ * Has the same undo log as ValueStack:
+ * - A pop is logged as the ordinal it removed
+ * - A push is logged as -1
+ */
+final class OperatorStack {
+
+	private static final Operator[] OPERATORS = Operator.values();
+	private static final byte PUSHED = -1;
+
+	private byte[] items;
+	private int size;
+	private byte[] journal;
+	private int journalSize;
+
+	/**
+	 * Constructor, creates an empty stack
+	 */
+	OperatorStack() {
+		items = new byte[16];
+		journal = new byte[16];
+	}
+
+	/**
+	 * Pushes an operator to the top of the stack
+	 * @param op the operator
+	 */
+	void push(Operator op) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size * 2);
+		}
+		items[size++] = (byte) op.ordinal();
+		log(PUSHED);
+	}
+
+	/**
+	 * Removes the operator on top of the stack
+	 * precondition: stack is not empty
+	 * @return the removed operator
+	 */
+	Operator pop() {
+		byte code = items[--size];
+		log(code);
+		return OPERATORS[code];
+	}
+
+	/**
+	 * precondition: stack is not empty
+	 * @return the operator on top of the stack
+	 */
+	Operator peek() {
+		return OPERATORS[items[size - 1]];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Empties the stack and its journal
+	 */
+	void clear() {
+		size = 0;
+		journalSize = 0;
+	}
+
+	/**
+	 * Gets the current position in the journal, to be passed to rollback if the request fails or is popped
+	 * @return the position
+	 */
+	int mark() {
+		return journalSize;
+	}
+
+	/**
+	 * Undoes every push and pop made since the mark, newest first
+	 * precondition: mark was returned by mark() after the last clear, and the journal has not been rolled back past it since
+	 * postcondition: the stack is in the same state as when mark() was called
+	 * @param mark the journal position
+	 */
+	void rollback(int mark) {
+		while (journalSize > mark) {
+			byte code = journal[--journalSize];
+			if (code == PUSHED) {
+				size--;
+			} else {
+				items[size++] = code;
+			}
+		}
+	}
+
+	private void log(byte entry) {
+		if (journalSize == journal.length) {
+			journal = Arrays.copyOf(journal, journalSize * 2);
+		}
+		journal[journalSize++] = entry;
+	}
+}
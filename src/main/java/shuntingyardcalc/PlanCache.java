@@ -0,0 +1,143 @@
+package shuntingyardcalc;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of compiled expressions keyed by their text. When full, the least recently used plans are evicted, a batch at a time.
+ * Counts hits, misses and evictions so the hit rate can be checked.
+ * Lock free, so it can be shared by every thread of an engine: lookups only read the map, and the last use time of a plan is only
+ * written when it's stale by more than a millisecond (so the order is approximate, but hot plans don't bounce a cache line between cores).
+ */
+public final class PlanCache {
+
+	private static final long TOUCH_INTERVAL = 1_000_000; //ns between updates of the last use time of a plan
+
+	private final int capacity;
+	private final ConcurrentHashMap<String, Entry> plans;
+	private final AtomicBoolean evicting; //only one thread evicts at a time, the others don't wait for it
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	private static final class Entry {
+		final CompiledExpression plan;
+		volatile long lastUsed; //System.nanoTime() of the last get, to within TOUCH_INTERVAL
+
+		Entry(CompiledExpression plan, long now) {
+			this.plan = plan;
+			lastUsed = now;
+		}
+	}
+
+	/**
+	 * Constructor, creates an empty cache
+	 * @param capacity max number of plans kept
+	 */
+	public PlanCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		plans = new ConcurrentHashMap<>();
+		evicting = new AtomicBoolean();
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+	}
+
+	/**
+	 * Gets the plan for an expression and counts a hit or a miss
+	 * A plan compiled with fewer variable names than there are now is stale (see CalculatorEngine.compile), it counts as a miss.
+	 * @param expression the text
+	 * @param variableCount the number of variable names declared now
+	 * @return the plan, or null if it isn't cached or is stale
+	 */
+	CompiledExpression get(String expression, int variableCount) {
+		Entry entry = plans.get(expression);
+		if (entry == null || entry.plan.variableCount != variableCount) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		long now = System.nanoTime();
+		if (now - entry.lastUsed > TOUCH_INTERVAL) {
+			entry.lastUsed = now;
+		}
+		return entry.plan;
+	}
+
+	/**
+	 * Caches a plan, evicting the least recently used ones if the cache is full
+	 * postcondition: size() <= capacity, unless another thread is evicting (it will be soon after)
+	 * @param plan the plan, keyed by its text
+	 */
+	void put(CompiledExpression plan) {
+		plans.put(plan.getExpression(), new Entry(plan, System.nanoTime()));
+		//re-checked after evicting, for the plans other threads put meanwhile (they didn't wait)
+		while (plans.size() > capacity && evicting.compareAndSet(false, true)) {
+			try {
+				evict();
+			} finally {
+				evicting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest eighth of the plans (at least down to capacity), so a full cache isn't scanned on every put
+	 */
+	private void evict() {
+		int count = Math.max(plans.size() - capacity, 0) + Math.max(1, capacity / 8);
+		long[] times = new long[plans.size() + 16]; //room for plans put while copying
+		int n = 0;
+		for (Entry entry : plans.values()) {
+			if (n == times.length) {
+				break;
+			}
+			times[n++] = entry.lastUsed;
+		}
+		if (n == 0) {
+			return;
+		}
+		Arrays.sort(times, 0, n);
+		long threshold = times[Math.min(count, n) - 1];
+		int removed = 0;
+		for (var it = plans.entrySet().iterator(); it.hasNext() && removed < count;) {
+			var e = it.next();
+			if (e.getValue().lastUsed <= threshold && plans.remove(e.getKey(), e.getValue())) {
+				removed++;
+			}
+		}
+		evictions.add(removed);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int size() {
+		return plans.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Removes every plan, the counters are kept
+	 */
+	public void clear() {
+		plans.clear();
+	}
+}
@@ -0,0 +1,306 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Optimizes the postfix plan of a CompiledExpression once, when it's compiled, so that each evaluation does less arithmetic:
+ * - The plan is read as a tree, and identical subtrees (the same operators on the same literals and variables) are merged,
+ *   so a repeated subexpression like the sqrt(2) of sqrt(2)*x+sqrt(2)*y is computed once, saved, and reused.
+ * - Operators on literals whose result is exact at every working precision (like 2*3 or 1/4) are folded into a literal.
+ * - The other subtrees without variables (like π/180 or sin(1)) depend on the working precision and the angle mode, so they
+ *   are marked for the evaluators to cache (see CompiledExpression.execute). Each one is left where it was in the plan,
+ *   since its rounding changes how the rounding errors of what follows are tracked.
+ * The operators left are applied in the same order as in the plan, so the first error is the same. The ones removed would have
+ * given the same results as the ones kept.
+ *
+ * The optimized plan has TEMP instructions (see CompiledExpression), whose argument is a temp index and one of:
+ * - SAVE: save the top value in the temp, for a subtree that is used again
+ * - REUSE: push the value of the temp
+ * - CONST: starts a subtree without variables, which can be skipped (to after its END) if its value is cached
+ * - END: ends that subtree, its value is saved in the temp and cached
+ */
+final class PlanOptimizer {
+
+	private static final Operator[] OPERATORS = Operator.values();
+	//precision the literals are folded at: the lowest working precision, so a result that is exact there is exact at any precision
+	private static final int FOLD_PRECISION = 1 + ShuntingYard.GUARD_DIGITS;
+	//and again at this one: a rounded result that ends with zeros (like sqrt(0.002) = 0.044721359550) looks exact to isRounded
+	private static final int CHECK_PRECISION = 4 * FOLD_PRECISION;
+
+	//the optimized plan
+	int[] program;
+	BigDecimal[] literals;
+	int temps; //number of temps
+	int[] constantEnds; //for each temp, the index after the END of its subtree, or -1 if it's only saved
+	int[][] nested; //for each temp of a CONST, the temps of the CONSTs inside it (they are cached with it)
+
+	//the tree: for each node, its kind (PUSH, LOAD or APPLY), its argument (literal, slot or operator), and its operands (or -1)
+	private int[] kinds;
+	private int[] args;
+	private int[] lefts;
+	private int[] rights;
+	private BigDecimal[] values; //value of each literal node
+	private int[] uses; //number of operators that use each node (and 1 for the root)
+	private boolean[] constant; //true if there is no variable in the subtree
+	private boolean[] usedByVariable; //true if an operator with a variable in its subtree uses the node
+	private int count;
+	private final HashMap<BigDecimal, Integer> literalNodes = new HashMap<>();
+	private final HashMap<Integer, Integer> loadNodes = new HashMap<>();
+	private final HashMap<Long, Integer> applyNodes = new HashMap<>();
+	private final ShuntingYard yard = new ShuntingYard(); //for folding
+
+	//the plan being written
+	private int size;
+	private final HashMap<BigDecimal, Integer> literalIndexes = new HashMap<>();
+	private int numLiterals;
+
+	/**
+	 * Optimizes a plan
+	 * precondition: the plan leaves exactly one value (it was closed without errors)
+	 * @param program the instructions, see CompiledExpression
+	 * @param literals the literals it pushes
+	 */
+	PlanOptimizer(int[] program, BigDecimal[] literals) {
+		int capacity = program.length + 1;
+		kinds = new int[capacity];
+		args = new int[capacity];
+		lefts = new int[capacity];
+		rights = new int[capacity];
+		values = new BigDecimal[capacity];
+		uses = new int[capacity];
+		constant = new boolean[capacity];
+		usedByVariable = new boolean[capacity];
+		int[] stack = new int[program.length];
+		int depth = 0;
+		for (int instr : program) {
+			int arg = instr >>> 2;
+			switch (instr & 3) {
+				case CompiledExpression.PUSH:
+					stack[depth++] = literal(literals[arg]);
+					break;
+				case CompiledExpression.LOAD:
+					stack[depth++] = load(arg);
+					break;
+				default:
+					Operator op = OPERATORS[arg];
+					int right = op.numInputs == 2 ? stack[--depth] : -1;
+					int left = stack[--depth];
+					stack[depth++] = apply(op, left, right);
+					break;
+			}
+		}
+		int root = stack[0];
+		uses[root]++;
+		usedByVariable[root] = true; //its value leaves the subtree like a value used by a variable would
+		write(root);
+	}
+
+	private int literal(BigDecimal val) {
+		Integer id = literalNodes.get(val); //equals compares the scale too, so 2.0 stays 2.0
+		if (id == null) {
+			id = node(CompiledExpression.PUSH, 0, -1, -1);
+			values[id] = val;
+			constant[id] = true;
+			literalNodes.put(val, id);
+		}
+		return id;
+	}
+
+	private int load(int slot) {
+		Integer id = loadNodes.get(slot);
+		if (id == null) {
+			id = node(CompiledExpression.LOAD, slot, -1, -1);
+			loadNodes.put(slot, id);
+		}
+		return id;
+	}
+
+	private int apply(Operator op, int left, int right) {
+		long key = (long) op.ordinal() << 48 | (long) (left + 1) << 24 | (right + 1);
+		Integer id = applyNodes.get(key);
+		if (id != null) {
+			return id;
+		}
+		boolean literals = kinds[left] == CompiledExpression.PUSH && (right < 0 || kinds[right] == CompiledExpression.PUSH);
+		BigDecimal folded = literals ? fold(op, values[left], right < 0 ? null : values[right]) : null;
+		if (folded != null) {
+			id = literal(folded);
+		} else {
+			id = node(CompiledExpression.APPLY, op.ordinal(), left, right);
+			constant[id] = constant[left] && (right < 0 || constant[right]);
+			uses[left]++;
+			usedByVariable[left] |= !constant[id];
+			if (right >= 0) {
+				uses[right]++;
+				usedByVariable[right] |= !constant[id];
+			}
+		}
+		applyNodes.put(key, id);
+		return id;
+	}
+
+	private int node(int kind, int arg, int left, int right) {
+		if (count == kinds.length) {
+			int capacity = count * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			args = Arrays.copyOf(args, capacity);
+			lefts = Arrays.copyOf(lefts, capacity);
+			rights = Arrays.copyOf(rights, capacity);
+			values = Arrays.copyOf(values, capacity);
+			uses = Arrays.copyOf(uses, capacity);
+			constant = Arrays.copyOf(constant, capacity);
+			usedByVariable = Arrays.copyOf(usedByVariable, capacity);
+		}
+		kinds[count] = kind;
+		args[count] = arg;
+		lefts[count] = left;
+		rights[count] = right;
+		return count++;
+	}
+
+	/**
+	 * Applies an operator to literals, if the result doesn't depend on the working precision or the angle mode
+	 * @param op the operator
+	 * @param first its first (or only) operand
+	 * @param second its second operand, or null
+	 * @return the result, or null if it can't be folded (it's rounded, an error, or a trig function)
+	 */
+	private BigDecimal fold(Operator op, BigDecimal first, BigDecimal second) {
+		if (op == Operator.SIN || op == Operator.COS || op == Operator.TAN) {
+			return null; //exact for some angles in degrees only
+		}
+		BigDecimal ret = apply(op, first, second, FOLD_PRECISION);
+		if (ret == null || !ret.equals(apply(op, first, second, CHECK_PRECISION))) {
+			return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the result of the operator at a precision, or null if it's rounded or an error
+	 */
+	private BigDecimal apply(Operator op, BigDecimal first, BigDecimal second, int precision) {
+		yard.clear();
+		yard.setPrecision(precision);
+		yard.setBudget(EvaluationBudget.DEFAULT);
+		yard.valStack.push(first);
+		if (second != null) {
+			yard.valStack.push(second);
+		}
+		if (yard.applyOperation(op, yard.valStack) != 0 || yard.isRounded()) {
+			return null;
+		}
+		return yard.valStack.pop();
+	}
+
+	/**
+	 * Writes the optimized plan, from the root of the tree, without recursion (a long sum is a very deep tree)
+	 */
+	private void write(int root) {
+		program = new int[16];
+		literals = new BigDecimal[8];
+		int[] temp = new int[count];
+		Arrays.fill(temp, -1);
+		boolean[] written = new boolean[count];
+		constantEnds = new int[8];
+		var inside = new int[8][]; //temps of the CONSTs inside each CONST
+		int[] insideCounts = new int[8];
+		int[] open = new int[8]; //temps of the CONSTs being written, outermost first
+		int numOpen = 0;
+		//each item is a node, to enter (even) or to finish once its operands are written (odd)
+		int[] work = new int[16];
+		int numWork = 0;
+		work[numWork++] = root << 1;
+		while (numWork > 0) {
+			int item = work[--numWork];
+			int node = item >>> 1;
+			int kind = kinds[node];
+			if ((item & 1) == 0) {
+				if (written[node]) {
+					emit(CompiledExpression.TEMP, temp[node] << 2 | CompiledExpression.REUSE);
+				} else if (kind == CompiledExpression.PUSH) {
+					emit(CompiledExpression.PUSH, literalIndex(values[node]));
+				} else if (kind == CompiledExpression.LOAD) {
+					emit(CompiledExpression.LOAD, args[node]);
+				} else {
+					//a subtree without variables is cached on its own if its value is used by more than its parent subtree
+					boolean cached = constant[node] && (usedByVariable[node] || uses[node] > 1);
+					if (cached || uses[node] > 1) {
+						int t = temps++;
+						temp[node] = t;
+						if (t == constantEnds.length) {
+							constantEnds = Arrays.copyOf(constantEnds, t * 2);
+							inside = Arrays.copyOf(inside, t * 2);
+							insideCounts = Arrays.copyOf(insideCounts, t * 2);
+						}
+						constantEnds[t] = -1;
+						if (cached) {
+							emit(CompiledExpression.TEMP, t << 2 | CompiledExpression.CONST);
+							for (int i = 0; i < numOpen; i++) {
+								int outer = open[i];
+								if (inside[outer] == null) {
+									inside[outer] = new int[4];
+								} else if (insideCounts[outer] == inside[outer].length) {
+									inside[outer] = Arrays.copyOf(inside[outer], insideCounts[outer] * 2);
+								}
+								inside[outer][insideCounts[outer]++] = t;
+							}
+							if (numOpen == open.length) {
+								open = Arrays.copyOf(open, numOpen * 2);
+							}
+							open[numOpen++] = t;
+						}
+					}
+					if (numWork + 3 > work.length) {
+						work = Arrays.copyOf(work, work.length * 2);
+					}
+					work[numWork++] = item | 1;
+					if (rights[node] >= 0) {
+						work[numWork++] = rights[node] << 1;
+					}
+					work[numWork++] = lefts[node] << 1;
+				}
+			} else {
+				emit(CompiledExpression.APPLY, args[node]);
+				int t = temp[node];
+				if (t >= 0 && numOpen > 0 && open[numOpen - 1] == t) {
+					emit(CompiledExpression.TEMP, t << 2 | CompiledExpression.END);
+					constantEnds[t] = size;
+					numOpen--;
+				} else if (t >= 0) {
+					emit(CompiledExpression.TEMP, t << 2 | CompiledExpression.SAVE);
+				}
+				written[node] = true;
+			}
+		}
+		program = Arrays.copyOf(program, size);
+		literals = Arrays.copyOf(literals, numLiterals);
+		constantEnds = Arrays.copyOf(constantEnds, temps);
+		nested = new int[temps][];
+		for (int t = 0; t < temps; t++) {
+			nested[t] = inside[t] == null ? new int[0] : Arrays.copyOf(inside[t], insideCounts[t]);
+		}
+	}
+
+	private int literalIndex(BigDecimal val) {
+		Integer index = literalIndexes.get(val);
+		if (index == null) {
+			if (numLiterals == literals.length) {
+				literals = Arrays.copyOf(literals, numLiterals * 2);
+			}
+			literals[numLiterals] = val;
+			index = numLiterals++;
+			literalIndexes.put(val, index);
+		}
+		return index;
+	}
+
+	private void emit(int kind, int arg) {
+		if (size == program.length) {
+			program = Arrays.copyOf(program, size * 2);
+		}
+		program[size++] = arg << 2 | kind;
+	}
+}
@@ -0,0 +1,273 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Powers rounded to any precision, for ShuntingYard.applyOperation (which computes the short exact ones with BigDecimal.pow).
+ *
+ * - Integer exponents use windowed squaring: the exponent is read from its top bit, a window of a few bits at a time,
+ *   so each window costs one multiplication by a precomputed odd power of the base. Every product is rounded to the
+ *   working precision, with guard digits for the errors, which are multiplied by the exponent by the end.
+ * - Other exponents use x^y = exp(y * ln(x)). The absolute error of y * ln(x) is the relative error of the result,
+ *   so ln(x) is computed to a number of digits after the point (more for a large y), in fixed point:
+ *   - ln: x = u * 10^k with u close to 1, square roots bring u closer, then ln(u) = 2 * atanh((u-1)/(u+1)) is summed as a series
+ *   - exp: y * ln(x) = k * ln(10) + r, r is halved a few times, exp(r) is summed as a Taylor series and squared back
+ * ln(10) is computed once and cached, like π in Trig.
+ *
+ * Either way the cost depends on the precision, not on the size of the exact result.
+ */
+final class Power {
+
+	//extra digits on top of the requested precision, so the result is right to it
+	static final int GUARD = 5;
+	private static final double LOG10_2 = Math.log10(2);
+	private static final double LN_10 = Math.log(10);
+
+	//ln(10) to at least as many digits as was ever needed, and the last rounding of it that was used
+	private static volatile BigDecimal ln10 = computeLn10(64);
+	private static volatile BigDecimal roundedLn10 = ln10;
+
+	private Power() {
+	}
+
+	/**
+	 * x^n by windowed squaring
+	 * precondition: n != 0, and x != 0 if n < 0
+	 * @param x the base
+	 * @param n the exponent
+	 * @param mc the precision of the result
+	 * @return x^n rounded to mc
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	static BigDecimal pow(BigDecimal x, long n, MathContext mc) {
+		if (n < 0) {
+			MathContext wider = new MathContext(mc.getPrecision() + GUARD, RoundingMode.HALF_EVEN);
+			return BigDecimal.ONE.divide(pow(x, -n, wider), mc);
+		}
+		//the rounding error of x^a is multiplied by n/a by the time it's in x^n, so it's about n half ulps in all
+		MathContext work = new MathContext(mc.getPrecision() + GUARD + digits(n), RoundingMode.HALF_EVEN);
+		int bits = 64 - Long.numberOfLeadingZeros(n);
+		int window = bits <= 8 ? 1 : bits <= 24 ? 3 : 4;
+		//odd powers of the base: x, x^3, x^5 ... x^(2^window - 1)
+		BigDecimal[] odd = new BigDecimal[1 << (window - 1)];
+		odd[0] = x.round(work);
+		if (odd.length > 1) {
+			BigDecimal square = odd[0].multiply(odd[0], work);
+			for (int i = 1; i < odd.length; i++) {
+				odd[i] = odd[i - 1].multiply(square, work);
+			}
+		}
+		BigDecimal ret = null;
+		for (int i = bits - 1; i >= 0; ) {
+			if (ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled");
+			}
+			if ((n >>> i & 1) == 0) {
+				ret = ret.multiply(ret, work); //the top bit is 1, so ret is set by then
+				i--;
+				continue;
+			}
+			//the longest window from bit i down that ends with a 1
+			int low = Math.max(0, i - window + 1);
+			while ((n >>> low & 1) == 0) {
+				low++;
+			}
+			int value = (int) (n >>> low & (1L << (i - low + 1)) - 1);
+			if (ret == null) {
+				ret = odd[value >> 1];
+			} else {
+				for (int j = low; j <= i; j++) {
+					ret = ret.multiply(ret, work);
+				}
+				ret = ret.multiply(odd[value >> 1], work);
+			}
+			i = low - 1;
+		}
+		return ret.round(mc);
+	}
+
+	/**
+	 * x^y = exp(y * ln(x))
+	 * precondition: x > 0
+	 * @param x the base
+	 * @param y the exponent
+	 * @param mc the precision of the result
+	 * @return x^y rounded to mc
+	 * @throws ArithmeticException if the result is too large or small for a BigDecimal, or if the thread is interrupted
+	 */
+	static BigDecimal pow(BigDecimal x, BigDecimal y, MathContext mc) {
+		int digits = mc.getPrecision() + GUARD;
+		//the error of ln(x) is multiplied by y, so it needs as many more digits as y has before the point
+		int scale = digits + 1 + Math.max(0, y.precision() - y.scale());
+		double estimate = Math.abs(y.doubleValue() * ShuntingYard.log10(x)) * LN_10;
+		if (!(estimate < Integer.MAX_VALUE / 2)) {
+			throw new ArithmeticException("Power out of range");
+		}
+		BigDecimal z = y.multiply(ln(x, scale)).setScale(digits + 1, RoundingMode.HALF_EVEN);
+		return exp(z, digits).round(mc);
+	}
+
+	/**
+	 * @param digits number of digits after the point
+	 * @return ln(x) rounded to digits after the point
+	 * precondition: x > 0
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	private static BigDecimal ln(BigDecimal x, int digits) {
+		//x = u * 10^k with 10^-0.5 <= u < 10^0.5, so ln(u) is small and adding k * ln(10) doesn't cancel it
+		long k = Math.round(ShuntingYard.log10(x));
+		BigDecimal u = x.scaleByPowerOfTen((int) -k);
+		//the error of ln(10) is multiplied by k
+		int extra = digits(Math.abs(k)) + 2;
+		BigDecimal ret = lnNearOne(u, digits + 2);
+		if (k != 0) {
+			ret = ret.add(ln10(digits + extra).multiply(BigDecimal.valueOf(k)));
+		}
+		return ret.setScale(digits, RoundingMode.HALF_EVEN);
+	}
+
+	/**
+	 * @param digits number of digits after the point
+	 * @return ln(u) to about digits after the point
+	 * precondition: 0.3 < u < 3.2
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	private static BigDecimal lnNearOne(BigDecimal u, int digits) {
+		//ln(u) = 2^s * ln(u^(1/2^s)), so the error is multiplied by 2^s, and the terms add up a digit's worth of errors.
+		//A square root costs as much as several multiplications, so there are fewer of them than halvings in exp
+		int s = reductions(digits) / 4;
+		int scale = digits + 2 + (int) ((s + 1) * LOG10_2) + digits(digits);
+		MathContext work = new MathContext(scale + 1, RoundingMode.HALF_EVEN); //the values are close to 1
+		BigDecimal v = u;
+		for (int i = 0; i < s; i++) {
+			v = v.sqrt(work);
+		}
+		//ln(v) = 2 * atanh(z) with z = (v-1)/(v+1): 2 * (z + z^3/3 + z^5/5 ...)
+		BigDecimal z = v.subtract(BigDecimal.ONE).divide(v.add(BigDecimal.ONE), scale, RoundingMode.HALF_EVEN);
+		BigDecimal zSquared = z.multiply(z).setScale(scale, RoundingMode.HALF_EVEN);
+		BigDecimal power = z;
+		BigDecimal sum = z;
+		for (long n = 3; ; n += 2) {
+			if (ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled");
+			}
+			power = power.multiply(zSquared).setScale(scale, RoundingMode.HALF_EVEN);
+			if (power.signum() == 0) {
+				break;
+			}
+			sum = sum.add(power.divide(BigDecimal.valueOf(n), scale, RoundingMode.HALF_EVEN));
+		}
+		return sum.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(s + 1)));
+	}
+
+	/**
+	 * @param z the exponent, with its error below 10^-digits
+	 * @param digits number of significant digits
+	 * @return exp(z) rounded to digits
+	 * @throws ArithmeticException if the result is too large or small for a BigDecimal, or if the thread is interrupted
+	 */
+	private static BigDecimal exp(BigDecimal z, int digits) {
+		//z = k * ln(10) + r with |r| <= ln(10)/2, so exp(z) = 10^k * exp(r), and exp(r) is between 0.3 and 3.2
+		long k = Math.round(z.doubleValue() / LN_10);
+		if (Math.abs(k) > Integer.MAX_VALUE / 2) {
+			throw new ArithmeticException("Power out of range");
+		}
+		int s = reductions(digits);
+		//squaring s times multiplies the relative error by 2^s, and the terms add up a digit's worth of errors
+		int scale = digits + 2 + (int) (s * LOG10_2) + digits(digits);
+		BigDecimal r = z;
+		if (k != 0) {
+			r = r.subtract(ln10(scale + digits(Math.abs(k)) + 1).multiply(BigDecimal.valueOf(k)));
+		}
+		//exp(r) = exp(r/2^s)^(2^s), and dividing by a power of 2 is exact in decimal
+		BigDecimal t = r.divide(new BigDecimal(BigInteger.ONE.shiftLeft(s))).setScale(scale, RoundingMode.HALF_EVEN);
+		BigDecimal term = BigDecimal.ONE;
+		BigDecimal sum = BigDecimal.ONE;
+		for (long n = 1; ; n++) {
+			if (ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled");
+			}
+			term = term.multiply(t).divide(BigDecimal.valueOf(n), scale, RoundingMode.HALF_EVEN);
+			if (term.signum() == 0) {
+				break;
+			}
+			sum = sum.add(term);
+		}
+		MathContext work = new MathContext(scale + 1, RoundingMode.HALF_EVEN);
+		for (int i = 0; i < s; i++) {
+			sum = sum.multiply(sum, work);
+		}
+		return sum.round(new MathContext(digits, RoundingMode.HALF_EVEN)).scaleByPowerOfTen((int) k);
+	}
+
+	/**
+	 * Gets the number of halvings before summing the series of exp: each one costs a multiplication (a squaring at the end)
+	 * and saves a few terms, so it's about the square root of the digits
+	 * @param digits the precision of the series
+	 * @return the number of reductions
+	 */
+	static int reductions(int digits) {
+		return (int) Math.sqrt(digits) / 2 + 1;
+	}
+
+	/**
+	 * Gets ln(10), computed once and cached
+	 * @param digits number of significant digits
+	 * @return ln(10) rounded to digits
+	 */
+	static BigDecimal ln10(int digits) {
+		BigDecimal ret = roundedLn10;
+		if (ret.precision() == digits) {
+			return ret;
+		}
+		BigDecimal cached = ln10;
+		if (cached.precision() < digits) {
+			synchronized (Power.class) {
+				cached = ln10;
+				if (cached.precision() < digits) {
+					cached = computeLn10(digits + digits / 4); //headroom, so a slowly growing precision doesn't recompute every time
+					ln10 = cached;
+				}
+			}
+		}
+		ret = cached.round(new MathContext(digits, RoundingMode.HALF_EVEN));
+		roundedLn10 = ret;
+		return ret;
+	}
+
+	/**
+	 * Computes ln(10) = 3ln(2) + ln(5/4), with ln(2) = 2atanh(1/3) and ln(5/4) = 2atanh(1/9), in fixed point integers
+	 * @param digits number of significant digits
+	 * @return ln(10) rounded to digits
+	 */
+	private static BigDecimal computeLn10(int digits) {
+		int scale = digits + 10; //the terms are truncated, the extra digits absorb it
+		BigInteger one = BigInteger.TEN.pow(scale);
+		BigInteger fixed = atanhInverse(3, one).multiply(BigInteger.valueOf(6)).add(atanhInverse(9, one).shiftLeft(1));
+		return new BigDecimal(fixed, scale).round(new MathContext(digits, RoundingMode.HALF_EVEN));
+	}
+
+	/**
+	 * @return atanh(1/x) * one, by its Taylor series: 1/x + 1/(3x^3) + 1/(5x^5) + ...
+	 */
+	private static BigInteger atanhInverse(int x, BigInteger one) {
+		BigInteger xSquared = BigInteger.valueOf((long) x * x);
+		BigInteger power = one.divide(BigInteger.valueOf(x)); //one / x^(2n+1)
+		BigInteger sum = power;
+		for (int n = 1; power.signum() != 0; n++) {
+			power = power.divide(xSquared);
+			sum = sum.add(power.divide(BigInteger.valueOf(2 * n + 1)));
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the number of decimal digits of n (1 for 0)
+	 */
+	private static int digits(long n) {
+		return n < 10 ? 1 : (int) Math.log10(n) + 1;
+	}
+}
@@ -0,0 +1,183 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * An exact fraction, for the exact mode of ShuntingYard: a decimal numerator over an integer denominator.
+ * The denominator never has the factors 2 or 5 (they are moved into the scale of the numerator), so a value is a
+ * terminating decimal exactly when its denominator is 1, and 1/3*3 is 1 again instead of 0.999...
+ * The numerator being a BigDecimal keeps the powers of ten of the operands in its scale, so 1E5000/3 stays short.
+ *
+ * Reducing by the gcd costs about as much as a division, so it isn't done after every operation: a small
+ * denominator is always reduced (that's cheap, and finds the fractions that are decimals again), a large one only
+ * when its length passes a power of two, so it is at most about twice as long as its reduced form.
+ * Immutable.
+ */
+final class Rational {
+
+	private static final BigInteger FIVE = BigInteger.valueOf(5);
+	//denominators up to this many bits are always reduced
+	private static final int SMALL_BITS = 64;
+	private static final double LOG10_2 = Math.log10(2);
+
+	final BigDecimal numerator;
+	final BigInteger denominator; //positive, not a multiple of 2 or 5. ONE if the value is a decimal
+
+	private Rational(BigDecimal numerator, BigInteger denominator) {
+		this.numerator = numerator;
+		this.denominator = numerator.signum() == 0 ? BigInteger.ONE : denominator;
+	}
+
+	/**
+	 * @param numerator the numerator
+	 * @param denominator the denominator, as kept by ValueStack: null for a decimal, otherwise positive and not a multiple of 2 or 5
+	 * @return the fraction
+	 */
+	static Rational of(BigDecimal numerator, BigInteger denominator) {
+		return new Rational(numerator, denominator == null ? BigInteger.ONE : denominator);
+	}
+
+	/**
+	 * @return true if the value is a decimal (its denominator is 1)
+	 */
+	boolean isDecimal() {
+		return denominator.equals(BigInteger.ONE);
+	}
+
+	/**
+	 * @return the denominator as ValueStack keeps it, null for a decimal
+	 */
+	BigInteger stackDenominator() {
+		return isDecimal() ? null : denominator;
+	}
+
+	int signum() {
+		return numerator.signum();
+	}
+
+	/**
+	 * @return the digits of the numerator and the denominator, for the cost and the size of the fraction
+	 */
+	long digits() {
+		return numerator.precision() + denominatorDigits();
+	}
+
+	/**
+	 * @return about the number of digits of the denominator
+	 */
+	long denominatorDigits() {
+		return (long) (denominator.bitLength() * LOG10_2) + 1;
+	}
+
+	/**
+	 * @return about log10 of the absolute value, precondition: not 0
+	 */
+	double log10() {
+		return ShuntingYard.log10(numerator) - ShuntingYard.log10(new BigDecimal(denominator));
+	}
+
+	Rational negate() {
+		return new Rational(numerator.negate(), denominator);
+	}
+
+	Rational add(Rational other) {
+		if (denominator.equals(other.denominator)) {
+			return reduce(numerator.add(other.numerator), denominator, denominator.bitLength());
+		}
+		BigDecimal sum = numerator.multiply(new BigDecimal(other.denominator)).add(other.numerator.multiply(new BigDecimal(denominator)));
+		return reduce(sum, denominator.multiply(other.denominator), Math.max(denominator.bitLength(), other.denominator.bitLength()));
+	}
+
+	Rational subtract(Rational other) {
+		return add(other.negate());
+	}
+
+	Rational multiply(Rational other) {
+		return reduce(numerator.multiply(other.numerator), denominator.multiply(other.denominator),
+				Math.max(denominator.bitLength(), other.denominator.bitLength()));
+	}
+
+	/**
+	 * @param other the divisor
+	 * @return this / other
+	 * @throws ArithmeticException if other is 0
+	 */
+	Rational divide(Rational other) {
+		if (other.signum() == 0) {
+			throw new ArithmeticException("Division by zero");
+		}
+		//a/b / (u*10^-s/d) = a*d*10^s / (b*u), then the 2s and 5s of u go to the scale: 1/(2^p*5^q*m) = 2^q*5^p / (10^(p+q)*m)
+		BigInteger divisor = other.numerator.unscaledValue();
+		BigDecimal num = numerator.multiply(new BigDecimal(other.denominator)).scaleByPowerOfTen(other.numerator.scale());
+		if (divisor.signum() < 0) {
+			num = num.negate();
+			divisor = divisor.negate();
+		}
+		int twos = divisor.getLowestSetBit();
+		divisor = divisor.shiftRight(twos);
+		int fives = 0;
+		BigInteger[] qr = divisor.divideAndRemainder(FIVE);
+		while (qr[1].signum() == 0) {
+			divisor = qr[0];
+			fives++;
+			qr = divisor.divideAndRemainder(FIVE);
+		}
+		if (twos != 0 || fives != 0) {
+			BigInteger factor = FIVE.pow(twos).shiftLeft(fives);
+			num = num.multiply(new BigDecimal(factor)).scaleByPowerOfTen(-twos - fives);
+		}
+		return reduce(num, denominator.multiply(divisor), denominator.bitLength());
+	}
+
+	/**
+	 * @param n the exponent, at least 1
+	 * @return this^n (already reduced if this is)
+	 */
+	Rational pow(int n) {
+		return new Rational(numerator.pow(n), denominator.pow(n));
+	}
+
+	/**
+	 * @return the same fraction with the gcd of its numerator and denominator divided out
+	 */
+	Rational reduce() {
+		if (isDecimal()) {
+			return this;
+		}
+		//the denominator has no 2s or 5s, so the powers of ten of the numerator never share a factor with it
+		BigInteger unscaled = numerator.unscaledValue();
+		BigInteger gcd = unscaled.gcd(denominator);
+		if (gcd.equals(BigInteger.ONE)) {
+			return this;
+		}
+		return new Rational(new BigDecimal(unscaled.divide(gcd), numerator.scale()), denominator.divide(gcd));
+	}
+
+	/**
+	 * Builds the result of an operation, reduced if its denominator is small or has just passed a power of two in length
+	 * @param numerator the numerator
+	 * @param denominator the denominator, without 2s or 5s
+	 * @param operandBits bits of the longest denominator of the operands
+	 */
+	private static Rational reduce(BigDecimal numerator, BigInteger denominator, int operandBits) {
+		var ret = new Rational(numerator, denominator);
+		int bits = ret.denominator.bitLength();
+		if (bits <= SMALL_BITS || Integer.highestOneBit(bits) > Integer.highestOneBit(operandBits)) {
+			return ret.reduce();
+		}
+		return ret;
+	}
+
+	/**
+	 * @param mc the precision
+	 * @return the value as a decimal, rounded to mc
+	 */
+	BigDecimal toBigDecimal(MathContext mc) {
+		if (isDecimal()) {
+			return numerator.round(mc);
+		}
+		return numerator.divide(new BigDecimal(denominator), mc);
+	}
+}
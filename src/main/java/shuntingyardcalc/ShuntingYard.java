@@ -0,0 +1,1145 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * The shunting yard core of the calculator: the operator and value stacks, and the rules for appending to them.
+ * It knows nothing about how the expression is displayed, the number that is being built is given to it as a span of characters.
+ * Used by Calculator for key by key input. 
+ * Pushing values and applying operators go through pushNumber, pushConstant and apply, which CompiledExpression.Builder
+ * overrides to record a postfix plan instead of evaluating.
+ * In exact mode, + - * / and integer powers keep fractions exact (see Rational): 1/3 stays a third until it goes through
+ * an operator that needs a decimal, or until the result is displayed.
+ * (See Calculator for how the algorithm works)
+ */
+class ShuntingYard {
+
+	//digits computed on top of the requested precision, to absorb rounding errors
+	static final int GUARD_DIGITS = 10; 
+	//working precision never goes above this when retrying (the old fixed internal precision), unless more digits are requested
+	static final int MAX_PRECISION = 1337; 
+	//results above 10^MAX_EXPONENT are an overflow (Math error), and so are bases of powers above 10^MAX_BASE_EXPONENT
+	static final int MAX_EXPONENT = 99999; 
+	static final int MAX_BASE_EXPONENT = 5000; 
+	//powers below 10^-UNDERFLOW_EXPONENT are rounded to 0, so the scale of every value fits in an int
+	static final int UNDERFLOW_EXPONENT = Integer.MAX_VALUE / 4; 
+	//digits from which BigInteger multiplies with Karatsuba instead of digit by digit (its threshold is 80 ints)
+	private static final int KARATSUBA_DIGITS = 770; 
+	private static final double LOG10_2 = Math.log10(2); 
+
+	final ValueStack valStack; //stack for values
+	final OperatorStack operatorStack; //stack for operators
+	//valSurplus: num available values - operators with 2 inputs. Should be updated when adding values to the stack
+	int valSurplus; 
+
+	//working precision and angle mode, with the constants the operators need for them
+	private OperatorContext context; 
+	//true if an operation has rounded a result since the last clear
+	private boolean rounded; 
+	//true if divisions give exact fractions instead of rounding
+	private boolean exact; 
+	//digits of accuracy lost to cancellation (like 1/3-0.3333) since the last clear, only counted once something was rounded
+	private int lostDigits; 
+	//limits of the current evaluation, the estimated digit operations done since it started, 
+	//and the System.nanoTime() it must end by (only checked if the budget has a timeout)
+	private EvaluationBudget budget; 
+	private long operations; 
+	private long deadline; 
+
+	//the number being built (digits only), which isn't pushed to valStack until an operator is appended. null if there is none
+	private CharSequence pendingText; 
+	private int pendingStart; 
+	private int pendingEnd; 
+
+	/**
+	 * Constructor, creates an empty shunting yard in radian mode
+	 */
+	ShuntingYard() {
+		valStack = new ValueStack(); 
+		operatorStack = new OperatorStack(); 
+		valSurplus = 0; 
+		context = OperatorContext.of(10 + GUARD_DIGITS, false); 
+		setBudget(EvaluationBudget.DEFAULT); 
+	}
+
+	/**
+	 * @return true if angles are in degrees, false for radians
+	 */
+	boolean isDegreeMode() {
+		return context.degreeMode; 
+	}
+
+	/** Sets the angle mode
+	 * precondition: the stacks are empty, or the caller recalculates them (values already on them were computed in the previous mode)
+	 * @param degreeMode true for degrees, false for radians
+	 */
+	void setDegreeMode(boolean degreeMode) {
+		if (degreeMode != context.degreeMode) {
+			context = context.toggleAngleMeasure(); 
+		}
+	}
+
+	/**
+	 * @return true if + - * / and integer powers keep fractions exact
+	 */
+	boolean isExactMode() {
+		return exact; 
+	}
+
+	/** Sets the exact mode
+	 * precondition: the stacks are empty, or the caller recalculates them
+	 * @param exact true to keep fractions exact, false to round them to the working precision like every other result
+	 */
+	void setExactMode(boolean exact) {
+		this.exact = exact; 
+	}
+
+	/** Sets the working precision and resets the rounding error tracking
+	 * precondition: the stacks are empty (values already on them were computed at the previous precision)
+	 * @param digits number of significant digits for operations that round
+	 */
+	void setPrecision(int digits) {
+		context = OperatorContext.of(digits, context.degreeMode); 
+		rounded = false; 
+		lostDigits = 0; 
+	}
+
+	/**
+	 * @return the working precision
+	 */
+	int getPrecision() {
+		return context.mc.getPrecision(); 
+	}
+
+	/**
+	 * @return true if an operation has rounded a result since the precision was set
+	 */
+	boolean isRounded() {
+		return rounded; 
+	}
+
+	/**
+	 * @return the digits counted as lost to cancellation since the precision was set (see retryPrecision)
+	 */
+	int getLostDigits() {
+		return lostDigits; 
+	}
+
+	/** Adds the rounding of operations that weren't applied because their result was already known (see CompiledExpression.execute)
+	 * @param rounded true if they rounded a result
+	 * @param lostDigits the digits they lost to cancellation
+	 */
+	void addRounding(boolean rounded, int lostDigits) {
+		this.rounded |= rounded; 
+		this.lostDigits += lostDigits; 
+	}
+
+	/** Starts counting the work of an evaluation against a budget (it isn't reset by clear or setPrecision, so retries count too)
+	 * @param budget the limits, from now on
+	 */
+	void setBudget(EvaluationBudget budget) {
+		this.budget = budget; 
+		operations = 0; 
+		deadline = budget.getTimeoutMillis() > 0 ? System.nanoTime() + budget.getTimeoutMillis() * 1_000_000 : 0; 
+	}
+
+	/** Counts the estimated cost of an operation against the budget, before it is done
+	 * @param digits estimated digits of the result
+	 * @param cost estimated digit operations
+	 * @return 0 if the operation can be done, 6 (Too large) if it would go over a limit of the budget
+	 */
+	private int charge(long digits, long cost) {
+		operations += cost; 
+		if (digits > budget.getMaxDigits() || operations > budget.getMaxOperations()) {
+			return 6; 
+		}
+		if (deadline != 0 && System.nanoTime() - deadline > 0) {
+			return 6; 
+		}
+		return 0; 
+	}
+
+	/** Estimates the digit operations of multiplying two numbers, the way BigInteger does it: 
+	 * digit by digit for short numbers, Karatsuba (n^1.585) for long ones (Toom-Cook is faster still, this is an upper bound)
+	 * @param a digits of one number
+	 * @param b digits of the other
+	 * @return the estimate
+	 */
+	static long multiplyCost(long a, long b) {
+		long small = Math.min(a, b); 
+		long large = Math.max(a, b); 
+		if (small <= KARATSUBA_DIGITS) {
+			return small * large; 
+		}
+		//large/small multiplications of small digits each
+		return (long) (large * KARATSUBA_DIGITS * Math.pow((double) small / KARATSUBA_DIGITS, 0.585)); 
+	}
+
+	/** Estimates the digit operations of a trig function, see Trig.evaluate
+	 * @param x the angle
+	 * @param series number of series summed (tan is sin/cos)
+	 * @return the estimate
+	 */
+	private long trigCost(BigDecimal x, int series) {
+		long digits = context.trigContext.getPrecision(); 
+		long intDigits = Math.max(0, x.precision() - x.scale()); 
+		long reduction = multiplyCost(digits + intDigits, x.precision()); 
+		//π for the reduction, or for π/180 the first time in degrees, unless it's already computed to enough digits
+		if (!context.degreeMode) {
+			reduction += Trig.piCost((int) Math.min(Trig.MAX_PI_DIGITS, digits + intDigits)); 
+		} else if (!context.hasRadiansPerDegree()) {
+			reduction += Trig.piCost((int) digits) + multiplyCost(digits, 3); 
+		}
+		//each term of a series is a multiplication and a division by a long, and adds at least 4 digits (at 20 digits or more)
+		return reduction + series * (digits / 4 + 2) * (multiplyCost(digits, digits) + digits); 
+	}
+
+	/** Estimates the digit operations of an integer power rounded by Power: a squaring per bit of the exponent,
+	 * and a multiplication per window of bits, all at about the working precision
+	 * @param bits bits of the exponent
+	 * @return the estimate
+	 */
+	private long powerCost(int bits) {
+		long digits = context.mc.getPrecision() + Power.GUARD + 20; 
+		return (2L * bits + 8) * multiplyCost(digits, digits); 
+	}
+
+	/** Estimates the digit operations of exp(y*ln(x)) in Power: the square roots and halvings that reduce the arguments,
+	 * each about a few multiplications, then the two series, with as many more digits as y has before the point
+	 * @param exponent y
+	 * @return the estimate
+	 */
+	private long expLnCost(BigDecimal exponent) {
+		long digits = context.mc.getPrecision() + Power.GUARD + Math.max(0, exponent.precision() - exponent.scale()); 
+		long reductions = Power.reductions((int) digits); 
+		//each reduction halves the argument, so the terms of exp shrink 0.3 digits faster per reduction (0.6 for atanh, which skips every other power)
+		long terms = (long) (digits / (0.2 * reductions)) + 4; 
+		return (5 * reductions + terms) * (multiplyCost(digits, digits) + digits); 
+	}
+
+	/** Gets the base 10 logarithm of the absolute value, without converting the whole value to a double
+	 * @param val the value, not 0
+	 * @return log10(|val|)
+	 */
+	static double log10(BigDecimal val) {
+		BigInteger unscaled = val.unscaledValue().abs(); 
+		int shift = Math.max(0, unscaled.bitLength() - 62); //the top 62 bits are more than a double holds
+		return Math.log10(unscaled.shiftRight(shift).doubleValue()) + shift * LOG10_2 - val.scale(); 
+	}
+
+	/** Checks whether the result can be trusted to a number of digits, by the Ziv strategy: 
+	 * evaluate with a few guard digits, and only if the rounding errors (made worse by cancellation) could reach
+	 * the requested digits, evaluate again at a higher precision.
+	 * precondition: the expression has been evaluated at the current working precision
+	 * @param requested number of significant digits wanted in the result
+	 * @return the working precision to evaluate again with, or 0 if the result is accurate enough
+	 */
+	int retryPrecision(int requested) {
+		int working = context.mc.getPrecision(); 
+		int max = Math.max(MAX_PRECISION, requested + GUARD_DIGITS); 
+		if (!rounded || working - lostDigits >= requested + GUARD_DIGITS / 2 || working >= max) {
+			return 0; 
+		}
+		//at least double, so a result that keeps cancelling (like sqrt(2)^2-2) reaches the limit in a few retries
+		return Math.min(max, Math.max(working * 2, requested + lostDigits + GUARD_DIGITS)); 
+	}
+
+	/** Counts the digits lost when adding two values with opposite signs
+	 * @param a first operand
+	 * @param b second operand
+	 * @param sum the result
+	 */
+	private void trackCancellation(BigDecimal a, BigDecimal b, BigDecimal sum) {
+		if (!rounded) {
+			return; //exact values lose nothing
+		}
+		if (sum.signum() == 0) {
+			if (a.signum() != 0) {
+				lostDigits += context.mc.getPrecision(); //everything cancelled
+			}
+			return; 
+		}
+		//precision - scale is the position of the leading digit
+		int lost = Math.max(a.precision() - a.scale(), b.precision() - b.scale()) - (sum.precision() - sum.scale()); 
+		if (lost > 0) {
+			lostDigits += lost; 
+		}
+	}
+
+	/** Checks if a value is above a power of ten, from its digit count, without building the power
+	 * @param val the value
+	 * @param exponent the power of ten
+	 * @return true if val > 10^exponent
+	 */
+	static boolean exceeds(BigDecimal val, int exponent) {
+		if (val.signum() <= 0) {
+			return false; 
+		}
+		//precision - scale is the number of digits before the point: 10^(magnitude-1) <= val < 10^magnitude
+		long magnitude = (long) val.precision() - val.scale(); 
+		if (magnitude != exponent + 1) {
+			return magnitude > exponent + 1; 
+		}
+		return val.compareTo(BigDecimal.ONE.scaleByPowerOfTen(exponent)) > 0; //same digit count as 10^exponent, only then is it built
+	}
+
+	/** Gets the digits of the exact sum (or difference) of two values, without computing it
+	 * @param a one value
+	 * @param b the other
+	 * @return a bound on the precision of a + b
+	 */
+	static long sumDigits(BigDecimal a, BigDecimal b) {
+		//adding 0 only changes the scale
+		if (a.signum() == 0) {
+			return b.precision() + Math.max(0, (long) a.scale() - b.scale()); 
+		} else if (b.signum() == 0) {
+			return a.precision() + Math.max(0, (long) b.scale() - a.scale()); 
+		}
+		//from the leading digit of the larger one to the last digit of the one with the larger scale
+		long magnitude = Math.max((long) a.precision() - a.scale(), (long) b.precision() - b.scale()); 
+		return Math.max(1, magnitude + 1 + Math.max(a.scale(), b.scale())); 
+	}
+
+	/** Checks if the evaluating thread was interrupted, so a long evaluation can be stopped between operations.
+	 * The interrupt is left set, for the caller to see why the evaluation stopped
+	 * @return true if the evaluation should stop
+	 */
+	static boolean cancelled() {
+		return Thread.currentThread().isInterrupted(); 
+	}
+
+	/**
+	 * Applies an operation of an operator to a stack of values. Pops op.numInputs values from the stack and applies it based on bottom->top order
+	 * Precondition: vals must have at least op.numInputs elements, changes to vals must be rolled back by the caller on error.
+	 * 				-op should be a valid operator, and not op.INVALID
+	 * 				-decimal operator should be allowed to act as addition, as the decimal place should be taken care of prior.
+	 * Postcondition: No side effects other than to vals, and the cost of the operation is counted against the budget
+	 * @param op The operator
+	 * @param vals The stack of values
+	 * @return Returns an error code: 
+	 * 6: Too large (the operation would go over the budget, see EvaluationBudget)
+	 * 5: Cancelled (the thread was interrupted)
+	 * 3: unrecognized op. (should never happen)
+	 * 2: Math error
+	 * 1: Undefined
+	 */
+	int applyOperation(Operator op, ValueStack vals) {
+		CalculatorMetrics metrics = CalculatorMetrics.get(); 
+		var event = new CalculatorEvents.Operation(); 
+		if (!metrics.isEnabled() && !event.isEnabled()) {
+			return compute(op, vals); 
+		}
+		if (event.isEnabled()) {
+			//the operands are popped by the operation, so their digits are counted before it
+			int inputs = Math.min(op.numInputs, vals.size()); 
+			event.firstDigits = inputs == 0 ? 0 : vals.peek(inputs - 1).precision(); 
+			event.secondDigits = inputs < 2 ? 0 : vals.peek().precision(); 
+		}
+		event.begin(); 
+		long start = System.nanoTime(); 
+		int errcode = compute(op, vals); 
+		long nanos = System.nanoTime() - start; 
+		event.end(); 
+		if (metrics.isEnabled()) {
+			metrics.recordOperation(op, errcode, nanos); 
+		}
+		if (event.shouldCommit()) {
+			event.operator = op.name(); 
+			event.workingPrecision = context.mc.getPrecision(); 
+			event.errorCode = errcode; 
+			event.commit(); 
+		}
+		return errcode; 
+	}
+
+	/**
+	 * Applies an operation, see applyOperation (which also records it in CalculatorMetrics and CalculatorEvents)
+	 */
+	private int compute(Operator op, ValueStack vals) {
+		BigDecimal first, second, ret; //declare variables for operands and result
+		MathContext mc = context.mc; 
+		int errcode; //error code of charging the cost of the operation
+		if (cancelled()) {
+			return 5; //return error code for a cancelled evaluation
+		}
+		if (exact) {
+			errcode = applyExact(op, vals); 
+			if (errcode >= 0) {
+				return errcode; 
+			}
+		}
+		switch (op) {
+			case MULT: 
+				first = vals.pop(); 
+				second = vals.pop(); 
+				//the magnitude of a product is the sum of the magnitudes (give or take 1), so a sure overflow isn't computed
+				if (first.signum() * second.signum() > 0 
+						&& (long) first.precision() - first.scale() + second.precision() - second.scale() - 2 > MAX_EXPONENT) {
+					return 2; //return error code for overflow
+				}
+				errcode = charge((long) first.precision() + second.precision(), multiplyCost(first.precision(), second.precision())); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = first.multiply(second);
+				if (exceeds(ret, MAX_EXPONENT)) {
+					return 2; //return error code for overflow
+				}
+				vals.push(ret); 
+				break;
+			case DIV:
+				first = vals.pop(); 
+				second = vals.pop(); 
+				//the division, and the multiplication that checks it
+				errcode = charge(mc.getPrecision(), 2 * multiplyCost(mc.getPrecision(), first.precision()) + second.precision()); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				try {
+					ret = second.divide(first, mc); 
+				} catch (ArithmeticException ex) {
+					return 1; //return error code for division by zero (Undef.)
+				}
+				//divide strips trailing zeros, so a rounded quotient can be shorter than the precision: only an exact one multiplies back
+				rounded |= ret.multiply(first).compareTo(second) != 0; 
+				if (exceeds(ret, MAX_EXPONENT)) {
+					return 2; //return error code for overflow (Math err.)
+				}
+				vals.push(ret); 
+				break;
+			case DEC: //decimals are treated as addition because the "0." is already accounted for in appendOperator
+			case ADD: 
+				first = vals.pop(); 
+				second = vals.pop(); 
+				errcode = charge(sumDigits(first, second), sumDigits(first, second)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = second.add(first); 
+				trackCancellation(second, first, ret); 
+				vals.push(ret); 
+				break;//breaks;
+			case SUB: //(the order is bottom->top, so the top value is subtracted from the one below it)
+				first = vals.pop(); 
+				second = vals.pop(); 
+				errcode = charge(sumDigits(first, second), sumDigits(first, second)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = second.subtract(first); 
+				trackCancellation(second, first, ret); 
+				vals.push(ret);
+				break;
+			case NEG: 
+				errcode = charge(vals.peek().precision(), vals.peek().precision()); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				vals.push(vals.pop().negate());
+				break;
+			case POW:
+				first = vals.pop(); 
+				second = vals.pop();
+				if (exceeds(second, MAX_BASE_EXPONENT)) {
+					return 2; //return error code for overflow(Math err.)
+				}
+				errcode = power(second, first, vals); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				break;
+			case SQRT:
+				if (vals.peek().signum() < 0) {
+					return 2; //return error code for square root of negative number (Math error)
+				}
+				//Newton's method doubles the digits at each step, so it's a few multiplications at the full precision, and one to check it
+				errcode = charge(mc.getPrecision(), 4 * multiplyCost(mc.getPrecision(), mc.getPrecision()) + vals.peek().precision()); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				try {
+					ret = SquareRoot.sqrt(vals.peek(), mc); //continues from the last root of the same value, if it's cached
+				} catch (ArithmeticException ex) {
+					return 5; //the Newton steps were stopped (Cancelled)
+				}
+				//the root is stripped of trailing zeros too (like sqrt(0.002) = 0.044721359550), so it's checked by squaring it
+				rounded |= ret.multiply(ret).compareTo(vals.peek()) != 0; 
+				vals.pop();
+				vals.push(ret);
+				break;
+			case SIN:
+			case COS:
+			case TAN:
+				errcode = charge(mc.getPrecision(), trigCost(vals.peek(), op == Operator.TAN ? 2 : 1)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				if (rounded) {
+					//the error of a rounded angle is relative, so its digits before the point are lost (like sin(8^55) from a rounded power)
+					lostDigits += Math.max(0, vals.peek().precision() - vals.peek().scale()); 
+				}
+				try {
+					if (op == Operator.SIN) {
+						ret = Trig.sin(vals.peek(), context);
+					} else if (op == Operator.COS) {
+						ret = Trig.cos(vals.peek(), context);
+					} else {
+						ret = Trig.tan(vals.peek(), context);
+					}
+				} catch (ArithmeticException ex) {
+					if (cancelled()) {
+						return 5; //the series was stopped (Cancelled)
+					}
+					return 2; //return error code for an angle too large to reduce (Math err.)
+				}
+				if (ret == null) {
+					return 1; //return error code for tangent of an undefined value (Undef.)
+				}
+				rounded |= ret.precision() >= mc.getPrecision(); //only the exact angles (like sin(30) in degrees) give shorter results
+				vals.pop();
+				vals.push(ret);
+				break;
+			default: //if unrecognized operator (should never happen)
+				return 3;
+		}
+		return 0;
+	}
+
+	/**
+	 * Applies an operator in exact mode, see applyOperation: + - * / and integer powers of fractions give fractions.
+	 * The other operators work on decimals, so the fractions they get are divided out first, at the working precision.
+	 * So are the ones added to a value that was already rounded (its error is tracked on decimals), and fractions
+	 * that would get longer than the digits an exact power can have (then they are rounded, like in the decimal path).
+	 * Precondition: same as applyOperation
+	 * Postcondition: if the operation was done, its result is on vals, reduced unless it's long (see Rational)
+	 * @param op the operator
+	 * @param vals the stack of values
+	 * @return the error code, same as applyOperation, or -1 if op is to be applied to the decimals now on top of vals
+	 */
+	private int applyExact(Operator op, ValueStack vals) {
+		MathContext mc = context.mc; 
+		Rational first, second, ret; //declare variables for operands and result
+		int errcode; //error code of charging the cost of the operation
+		boolean fractions = vals.denominator(0) != null || (op.numInputs == 2 && vals.denominator(1) != null); 
+		switch (op) {
+			case DEC: 
+			case ADD: 
+			case SUB: 
+				if (!fractions || rounded) {
+					return materialize(vals, 2); 
+				}
+				first = fraction(vals, 0); 
+				second = fraction(vals, 1); 
+				errcode = charge(first.digits() + second.digits(), fractionCost(first, second)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = op == Operator.SUB ? second.subtract(first) : second.add(first); 
+				break; 
+			case MULT: 
+				if (!fractions) {
+					return -1; //a product of decimals is exact
+				}
+				first = fraction(vals, 0); 
+				second = fraction(vals, 1); 
+				errcode = charge(first.digits() + second.digits(), fractionCost(first, second)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = second.multiply(first); 
+				break; 
+			case DIV: 
+				first = fraction(vals, 0); 
+				second = fraction(vals, 1); 
+				if (first.signum() == 0) {
+					return 1; //return error code for division by zero (Undef.)
+				}
+				errcode = charge(first.digits() + second.digits(), fractionCost(first, second)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = second.divide(first); 
+				if (!fractions && ret.isDecimal() && ret.numerator.precision() < mc.getPrecision()) {
+					return -1; //the decimal path gives the same quotient, with its usual scale
+				}
+				break; 
+			case NEG: 
+				if (!fractions) {
+					return -1; 
+				}
+				ret = fraction(vals, 0).negate(); 
+				break; 
+			case POW: 
+				errcode = fractionPower(vals); 
+				return errcode >= 0 ? errcode : materialize(vals, 2); 
+			default: 
+				return materialize(vals, op.numInputs); 
+		}
+		if (ret.digits() > exactDigits()) {
+			//too long to be worth keeping exact
+			BigDecimal val = ret.toBigDecimal(mc); 
+			rounded = true; 
+			ret = Rational.of(val, null); 
+		}
+		if (exceeds(ret, MAX_EXPONENT)) {
+			return 2; //return error code for overflow (Math err.)
+		}
+		for (int i = 0; i < op.numInputs; i++) {
+			vals.pop(); 
+		}
+		vals.push(ret.numerator, ret.stackDenominator()); 
+		return 0; 
+	}
+
+	/**
+	 * Applies POW exactly in exact mode, if the exponent is an integer and the base is a fraction or the exponent is negative
+	 * (power keeps the other powers exact when they are short enough), see applyExact
+	 * Precondition: vals has the base and the exponent on top
+	 * Postcondition: the power is pushed to vals if there is no error
+	 * @param vals the stack of values
+	 * @return the error code, same as applyOperation, or -1 if the power is left to the decimal path
+	 */
+	private int fractionPower(ValueStack vals) {
+		Rational exponent = fraction(vals, 0).reduce(); 
+		Rational base = fraction(vals, 1); 
+		BigDecimal y = exponent.numerator; 
+		if (!exponent.isDecimal() || base.signum() == 0 || y.signum() == 0 || y.precision() - y.scale() > 9 
+				|| (y.scale() > 0 && y.stripTrailingZeros().scale() > 0)) {
+			return -1; //not a short integer exponent, or a power of 0 (see power)
+		}
+		int n = y.intValueExact(); 
+		if (base.isDecimal() && n > 0) {
+			return -1; 
+		}
+		double log = base.log10(); 
+		if (log > MAX_BASE_EXPONENT) {
+			return 2; //return error code for overflow(Math err.)
+		}
+		long digits = Math.abs((long) n) * base.digits(); 
+		if (digits > exactDigits() || n * log > MAX_EXPONENT + 1) {
+			return -1; //rounded, or an overflow, by the decimal path
+		}
+		int errcode = charge(digits, 2 * multiplyCost(digits / 2, digits / 2)); //the last squaring is most of it
+		if (errcode != 0) {
+			return errcode; 
+		}
+		Rational ret = base.pow(Math.abs(n)); 
+		if (n < 0) {
+			ret = Rational.of(BigDecimal.ONE, null).divide(ret); 
+		}
+		if (rounded && Math.abs(n) > 1) {
+			lostDigits += (int) Math.log10(Math.abs(n)) + 1; //the relative error of the base is multiplied by the exponent
+		}
+		if (exceeds(ret, MAX_EXPONENT)) {
+			return 2; //return error code for overflow (Math err.)
+		}
+		vals.pop(); 
+		vals.pop(); 
+		vals.push(ret.numerator, ret.stackDenominator()); 
+		return 0; 
+	}
+
+	/** Replaces the fractions among the values on top of vals by their decimals, at the working precision
+	 * @param vals the stack of values
+	 * @param count how many values from the top (1 or 2)
+	 * @return -1 to go on with the decimal path, or the error code of charging the divisions
+	 */
+	private int materialize(ValueStack vals, int count) {
+		BigInteger top = vals.denominator(0); 
+		BigInteger below = count == 2 ? vals.denominator(1) : null; 
+		if (top == null && below == null) {
+			return -1; 
+		}
+		BigDecimal first = vals.pop(); 
+		if (count == 2) {
+			BigDecimal second = vals.pop(); 
+			if (below != null) {
+				int errcode = charge(context.mc.getPrecision(), multiplyCost(context.mc.getPrecision(), below.bitLength() / 3 + 1)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				second = Rational.of(second, below).toBigDecimal(context.mc); 
+			}
+			vals.push(second); 
+		}
+		if (top != null) {
+			int errcode = charge(context.mc.getPrecision(), multiplyCost(context.mc.getPrecision(), top.bitLength() / 3 + 1)); 
+			if (errcode != 0) {
+				return errcode; 
+			}
+			first = Rational.of(first, top).toBigDecimal(context.mc); 
+		}
+		vals.push(first); 
+		rounded = true; //a denominator without 2s and 5s never divides out
+		return -1; 
+	}
+
+	/**
+	 * @param vals the stack of values
+	 * @param depth 0 for the top value...
+	 * @return that value as a fraction
+	 */
+	private static Rational fraction(ValueStack vals, int depth) {
+		return Rational.of(vals.peek(depth), vals.denominator(depth)); 
+	}
+
+	/** Estimates the digit operations of an operation on two fractions: a few products of their numerators and denominators,
+	 * and a gcd to reduce the result (about a division)
+	 * @param a one fraction
+	 * @param b the other
+	 * @return the estimate
+	 */
+	private static long fractionCost(Rational a, Rational b) {
+		return 4 * multiplyCost(a.digits(), b.digits()); 
+	}
+
+	/**
+	 * @return the most digits a fraction can have in exact mode, the same as an exact power in the decimal path
+	 */
+	private int exactDigits() {
+		return Math.max(MAX_PRECISION, context.mc.getPrecision()); 
+	}
+
+	/** Checks if a fraction is above a power of ten, see exceeds
+	 * @param val the fraction
+	 * @param exponent the power of ten
+	 * @return true if val > 10^exponent
+	 */
+	private static boolean exceeds(Rational val, int exponent) {
+		if (val.isDecimal()) {
+			return exceeds(val.numerator, exponent); 
+		}
+		//it isn't a decimal, so it is never 10^exponent, and rounding it up to a few digits doesn't cross it
+		return exceeds(val.toBigDecimal(new MathContext(16, RoundingMode.UP)), exponent); 
+	}
+
+	/** Gets the value on top of valStack as a decimal: in exact mode, a fraction is divided out at the working precision
+	 * precondition: valStack is not empty
+	 * @return the value
+	 */
+	BigDecimal peekDecimal() {
+		return valStack.denominator(0) == null ? valStack.peek() : fraction(valStack, 0).toBigDecimal(context.mc); 
+	}
+
+	/**
+	 * precondition: valStack is not empty
+	 * @return the value on top of valStack as a fraction (see Rational), in exact mode it can have a denominator
+	 */
+	Rational peekFraction() {
+		return fraction(valStack, 0); 
+	}
+
+	/**
+	 * Applies POW to a base and an exponent, see applyOperation.
+	 * The size of the result is predicted from the logarithm of the base before anything is computed: powers with at most
+	 * MAX_PRECISION digits (or the working precision, if it's more) are computed exactly, the others are rounded by Power
+	 * (windowed squaring for integer exponents, exp(y*ln(x)) for the others), which costs the same for any exponent.
+	 * Precondition: the base is at most 10^MAX_BASE_EXPONENT
+	 * Postcondition: the result is pushed to vals if there is no error
+	 * @param base the base
+	 * @param exponent the exponent
+	 * @param vals the stack of values
+	 * @return the error code, same as applyOperation
+	 */
+	private int power(BigDecimal base, BigDecimal exponent, ValueStack vals) {
+		MathContext mc = context.mc; 
+		BigDecimal ret; //declare variable for the result
+		int errcode; //error code of charging the cost of the power
+		boolean inexact = rounded; //the errors of the operands, before this one rounds
+		boolean integer = exponent.scale() <= 0 || exponent.stripTrailingZeros().scale() <= 0; 
+		if (exponent.signum() == 0) {
+			if (base.signum() == 0) {
+				return 1; //return error code for 0^0 (undef.)
+			}
+			vals.push(BigDecimal.ONE); 
+			return 0; 
+		}
+		if (base.signum() == 0) {
+			if (exponent.signum() < 0) {
+				return 2; //return error code for 1/0 (Math err.)
+			}
+			vals.push(BigDecimal.ZERO); 
+			return 0; 
+		}
+		if (base.signum() < 0 && !integer) {
+			return 2; //return error code for a negative base with a fraction exponent (Math err.)
+		}
+		//odd integer powers of a negative base are negative, whatever the size of the exponent
+		boolean negative = base.signum() < 0 && exponent.toBigInteger().testBit(0); 
+		if (base.abs().compareTo(BigDecimal.ONE) == 0) {
+			vals.push(negative ? BigDecimal.ONE.negate() : BigDecimal.ONE); 
+			return 0; 
+		}
+		//log10 of the result: above the limit is an overflow, and far below it rounds to 0 (like a double would)
+		double log = log10(base); 
+		double magnitude = exponent.doubleValue() * log; 
+		if (magnitude > MAX_EXPONENT + 1) {
+			return 2; //return error code for overflow, without computing it (Math err.)
+		}
+		if (magnitude < -UNDERFLOW_EXPONENT) {
+			rounded = true; 
+			vals.push(BigDecimal.ZERO); 
+			return 0; 
+		}
+		try {
+			if (integer && exponent.precision() - exponent.scale() <= 18) { //fits in a long
+				long n = exponent.longValue(); 
+				//digits of the exact power: its unscaled value is the base's to the power
+				double digits = n * (log + base.scale()) + 1; 
+				//up to the digits a retry could reach, exact is cheap and keeps the values typed so far exact (a retry would need them anyway)
+				if (n > 0 && n <= Integer.MAX_VALUE && digits <= Math.max(MAX_PRECISION, mc.getPrecision())) {
+					errcode = charge((long) digits, 2 * multiplyCost((long) digits / 2, (long) digits / 2)); //the last squaring is most of it
+					if (errcode != 0) {
+						return errcode; 
+					}
+					ret = base.pow((int) n); //calculate power with integer exponent
+				} else {
+					errcode = charge(mc.getPrecision(), powerCost(64 - Long.numberOfLeadingZeros(Math.abs(n)))); 
+					if (errcode != 0) {
+						return errcode; 
+					}
+					ret = Power.pow(base, n, mc); 
+					rounded |= ret.precision() >= mc.getPrecision(); 
+				}
+				if (inexact && Math.abs(n) > 1) {
+					lostDigits += (int) Math.log10(Math.abs(n)) + 1; //the relative error of the base is multiplied by the exponent
+				}
+			} else {
+				errcode = charge(mc.getPrecision(), expLnCost(exponent)); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				ret = Power.pow(base.abs(), exponent, mc); 
+				if (negative) {
+					ret = ret.negate(); 
+				}
+				rounded |= ret.precision() >= mc.getPrecision(); 
+				if (inexact) {
+					//the relative error of the base is multiplied by the exponent, and the one of the exponent by ln of the result
+					double factor = Math.max(Math.abs(exponent.doubleValue()), Math.abs(magnitude) * Math.log(10)); 
+					lostDigits += factor > 1 ? (int) Math.log10(factor) + 1 : 0; 
+				}
+			}
+		} catch (ArithmeticException ex) {
+			if (cancelled()) {
+				return 5; //the power was stopped (Cancelled)
+			}
+			return 2; //return error code for overflow (Math err.)
+		}
+		if (exceeds(ret.abs(), MAX_EXPONENT)) {
+			return 2; //return error code for overflow (Math err.)
+		}
+		vals.push(ret); 
+		return 0; 
+	}
+
+	/**
+	 * Gets the prefix of the operator and check current operator for correctness, necessary for correct evaluation.
+	 * Precondition: all member variables properly updated and valid, operator is a valid one
+	 * Post ocndition: no side effects
+	 * @param op the operator
+	 * @return the necessary prefix for the operator, or null if none. Ex:left bracket has a prefix of multiplication.
+	 * 			On syntax error for the current operator: Return Operator.INVALID
+	 */
+	Operator getPrefix(Operator op) {
+		//the rules here are arbitrary, but ensure a good format for the calculator, see Operator enum for details
+		switch (op) {
+			case DEC:
+				if (pendingText == null) { //must be attached to a number being built
+					return Operator.INVALID;
+				}
+				if (!operatorStack.isEmpty() && operatorStack.peek() == op) {
+					return Operator.INVALID;
+				}
+				break;
+			case CLOSE_BRAC:
+				//an open bracket always leaves valSurplus at 0, so this also catches empty brackets "()"
+				if (valSurplus == 0) {
+					return Operator.INVALID;
+				}
+				break;
+			default: 
+				break;
+		}
+		switch (op.numInputs) {
+			case 1:
+				if (valSurplus == 1) {
+					return getPrefix(Operator.MULT) == null ? Operator.MULT : Operator.INVALID;
+				} else if (!operatorStack.isEmpty() && operatorStack.peek() == Operator.DEC) {
+					return Operator.INVALID;
+				}
+				break;
+			case 2:
+				if (valSurplus == 0) {
+					return Operator.INVALID;
+				}
+				break;
+			default:
+				break; 
+		}
+		return null;
+	}
+
+	/**
+	 * appends the operator to the operatorStack, and partially evaluates the stack if possible. Uses the shunting yard algorithm to do this
+	 * 
+	 * Precondition: There are no syntax / evaluation errors in the previous operatorStack, valStack, pending number
+	 * 		-valStack is not up to date if the user is building a number
+	 * i.e. member variables are valid
+	 * 
+	 * Postcondition: There are no errors in formatting of the two stacks.
+	 * The two stacks are altered if and only if there was no error valSurplus is properly updated, and the pending number is pushed
+	 * i.e. member variables stay valid
+	 *
+	 * @param op the operator to append
+	 * @return the error / success code: 
+	 * -1: syntax error 
+	 * 0: Success 
+	 * 1:Undefined 
+	 * 2: Math error
+	 * 5: Cancelled
+	 */
+	int appendOperator(Operator op) {
+		var prefix = getPrefix(op);
+		if (prefix == Operator.INVALID) {
+			//subtraction should always be subtraction unless it doesn't work, then it's negation:
+			if (op == Operator.SUB && getPrefix(Operator.NEG) == null) { 
+				op = Operator.NEG; 
+				prefix = null;
+			} else {
+				return -1;
+			}
+		}
+		//ensure that the currently valid member variables stay valid by logging every change, so that they can be undone on error
+		int valMark = valStack.mark(); 
+		int opMark = operatorStack.mark(); 
+		int errcode = shunt(op, prefix); 
+		if (errcode != 0) { 
+			valStack.rollback(valMark); 
+			operatorStack.rollback(opMark); 
+			return errcode; 
+		}
+		pendingText = null; 
+		return 0;
+	}
+
+	/**
+	 * The shunting yard part of appendOperator: pushes the number being built, applies every operator that op knocks off
+	 * the stack, and pushes op (and its prefix) 
+	 * Precondition: same as appendOperator, prefix is the result of getPrefix(op) and is not Operator.INVALID
+	 * Postcondition: on success, member variables are valid. On error, the stacks are left partially evaluated
+	 * and must be rolled back by the caller
+	 * @param op the operator to append
+	 * @param prefix the operator to push before op, or null
+	 * @return the error / success code, same as appendOperator
+	 */
+	private int shunt(Operator op, Operator prefix) {
+		//Push user inputted numbers to the valstack, since they aren't pushed until confirmed to be finished building
+		if (pendingText != null) { 
+			//The decimal apply operation function is just addition with more precidence, because we scale it appropriately here
+			boolean fraction = !operatorStack.isEmpty() && operatorStack.peek() == Operator.DEC; 
+			pushNumber(pendingText, pendingStart, pendingEnd, fraction); 
+		}
+		//Shunting yard part of the function, operators "knock" operators off of the stack and cause them to be applied to the 
+		//value stack, if the current operator is of lower precidence. 
+		//If an operator has n inputs, then n values from the stack will be replaced with just one resulting value
+		boolean isPrefix = prefix != null;
+		var cur = isPrefix ? prefix : op;
+		while (true) {
+			if (cur == null || operatorStack.isEmpty()) {
+				if (!isPrefix) break;
+				else {
+					isPrefix = false; 
+					operatorStack.push(prefix); //push prefix to operator stack (it is confirmed valid)
+					cur = op; 
+				}
+			}
+			var top = operatorStack.peek(); 
+			if (top == Operator.OPEN_BRAC) {
+				//open brackets can't be "knocked off" unless by closing bracket
+				if (cur == Operator.CLOSE_BRAC) { 
+					operatorStack.pop(); 
+					//prevent confusing the user, like realizing sqrt(-1) is invalid only after another request is performed
+					if (!operatorStack.isEmpty() && operatorStack.peek().isLeftToRight && operatorStack.peek() != Operator.OPEN_BRAC) { 
+						int errcode = apply(operatorStack.pop()); 
+						if (errcode != 0) { 
+							return errcode; 
+						}
+					}
+				}
+				cur = null; 
+			} else if (cur.precidence <= top.precidence && (!cur.isLeftToRight)) { 
+				//we can pop the operator and evaluate it without breaking order of operations
+				int errcode = apply(top); 
+				if (errcode != 0) {
+					return errcode; 
+				}
+				operatorStack.pop(); 
+			} else { 
+				cur = null;
+			}
+		}
+		//calculation complete and valid, now update state variables
+		if (prefix != null && prefix != Operator.CLOSE_BRAC) {
+			valSurplus -= prefix.numInputs - 1; 
+		}
+		if (op != Operator.CLOSE_BRAC) { 
+			valSurplus -= op.numInputs - 1;
+			operatorStack.push(op); 
+		}
+		return 0;
+	}
+
+	/** Appends a constant and check for errors
+	 *precondition:
+	 * 		the constant must be a variable and not a number, like pi
+	 * 		all member variables are valid and properly checked
+	 * postcondition:
+	 * 		all member variables are valid
+	 * @param val
+	 * @return ttrue if the operation completed, false otherwise
+	 */
+	boolean appendConstant(BigDecimal val) {
+		if (!prepareValue()) {
+			return false;
+		}
+		pushConstant(val); 
+		valSurplus++; 
+		return true; 
+	}
+
+	/** Appends a constant that can be a fraction (like Ans in exact mode), see appendConstant
+	 * precondition: exact mode, if val isn't a decimal
+	 * @param val the value
+	 * @return true if the operation completed, false otherwise
+	 */
+	boolean appendConstant(Rational val) {
+		if (!prepareValue()) {
+			return false;
+		}
+		valStack.push(val.numerator, val.stackDenominator()); 
+		valSurplus++; 
+		return true; 
+	}
+
+	/** Checks that a constant can be appended, and appends the implied multiplication before it if needed
+	 * precondition: all member variables are valid
+	 * postcondition: all member variables are valid, the caller must push the value and update valSurplus on success
+	 * @return true if the value can be pushed, false otherwise
+	 */
+	boolean prepareValue() {
+		if (pendingText == null && !operatorStack.isEmpty() && operatorStack.peek() == Operator.DEC) {
+			return false; //directly after a decimal point
+		} else if (valSurplus != 0 && appendOperator(Operator.MULT) != 0) {
+			//check if there is surplus value and attempt to append multiplication operator: implied multiplication
+			return false;
+		}
+		return true; 
+	}
+
+	/** Applies an operator to valStack (overridden when compiling)
+	 * @param op the operator
+	 * @return the error code of applyOperation
+	 */
+	int apply(Operator op) {
+		return applyOperation(op, valStack); 
+	}
+
+	/** Pushes a finished number to valStack (overridden when compiling)
+	 * @param text the characters containing the number
+	 * @param start index of the first digit
+	 * @param end index after the last digit
+	 * @param fraction true if the digits are after a decimal point
+	 */
+	void pushNumber(CharSequence text, int start, int end, boolean fraction) {
+		valStack.push(parseNumber(text, start, end, fraction)); 
+	}
+
+	/** Pushes a constant to valStack (overridden when compiling)
+	 * @param val the value
+	 */
+	void pushConstant(BigDecimal val) {
+		valStack.push(val); 
+	}
+
+	/**Starts a new number and checks for errors. The number is pending until an operator is appended
+	 * precondition:
+	 * 		all member variables are valid and properly checked
+	 * 		the span only has the digits 0-9
+	 * postcondition:
+	 * 		all member variables stay valid
+	 * 
+	 * @param text the characters containing the number
+	 * @param start index of the first digit
+	 * @param end index after the last digit
+	 * @return true if the operation completed, false otherwise
+	 */
+	boolean appendNumber(CharSequence text, int start, int end) {
+		//check if the valsurplus is not zero and implied multiplication fails,
+		if (valSurplus != 0 && appendOperator(Operator.MULT) != 0) {
+			return false;
+		}
+		valSurplus++; 
+		setPending(text, start, end); 
+		return true; 
+	}
+
+	/** Sets the number being built, without checking for errors (for when digits are added to it or it is restored)
+	 * precondition: a value is already counted for it in valSurplus
+	 * @param text the characters containing the number, or null if there is none
+	 * @param start index of the first digit
+	 * @param end index after the last digit
+	 */
+	void setPending(CharSequence text, int start, int end) {
+		pendingText = text; 
+		pendingStart = start; 
+		pendingEnd = end; 
+	}
+
+	/** Appends closing brackets until the operator stack is empty, so that all operators are applied
+	 * (one for each open bracket, and one more for the rest)
+	 * precondition: all member variables are valid
+	 * postcondition: on success, valStack has the result
+	 * @return the error / success code of appendOperator
+	 */
+	int close() {
+		int errcode; 
+		do {
+			errcode = appendOperator(Operator.CLOSE_BRAC); 
+		} while (errcode == 0 && !operatorStack.isEmpty()); 
+		return errcode; 
+	}
+
+	/** Clears the stacks and the variables which depend on them
+	 * Precondition: none
+	 * Postcondition: all stacks are cleared and all variables in a valid state
+	 */
+	void clear() {
+		valStack.clear(); 
+		operatorStack.clear();
+		valSurplus = 0; 
+		pendingText = null; 
+	}
+
+	/** Converts a span of digits to a number, without going through a string for short numbers
+	 * @param text the characters
+	 * @param start index of the first digit
+	 * @param end index after the last digit
+	 * @param fraction true if the digits are after a decimal point, i.e. "05" is 0.05
+	 * @return the value
+	 */
+	static BigDecimal parseNumber(CharSequence text, int start, int end, boolean fraction) {
+		int scale = fraction ? end - start : 0; 
+		if (end - start <= 18) { //always fits in a long
+			long unscaled = 0; 
+			for (int i = start; i < end; i++) {
+				unscaled = unscaled * 10 + (text.charAt(i) - '0'); 
+			}
+			return BigDecimal.valueOf(unscaled, scale); 
+		}
+		return new BigDecimal(text.subSequence(start, end).toString()).movePointLeft(scale); 
+	}
+}
@@ -0,0 +1,165 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Square roots to any precision, for ShuntingYard.applyOperation. Same results as BigDecimal.sqrt(mc) with HALF_EVEN, scale included:
+ * correctly rounded, and exact when the root fits the precision (like sqrt(2.25) = 1.5).
+ * BigDecimal.sqrt gets its rounding right by computing twice the digits; here the root is only computed to a few more digits,
+ * and the rounding is checked by squaring the halfway points around it.
+ *
+ * Newton's method starts from the double square root (16 digits) and doubles the digits at each step, each step at only
+ * the precision it can reach, so the cost is about that of the last step. The last root computed for an operand is kept
+ * in a small cache: the same operand at a higher precision (a Ziv retry, or a longer precision from the menu) continues
+ * from it instead of from the double, and a lower precision just rounds it.
+ * The cache is direct mapped by the hash of the operand and lock free: a slot holds an immutable entry, and two threads
+ * that race to replace it only lose one of the roots.
+ */
+final class SquareRoot {
+
+	//digits computed on top of the precision of a step, so the rounding of each step doesn't reach the digits it doubles
+	private static final int GUARD = 3;
+	//digits of the double estimate that are surely right
+	private static final int DOUBLE_DIGITS = 15;
+	private static final int CACHE_SIZE = 64; //a power of 2
+	private static final BigDecimal HALF = new BigDecimal("0.5");
+
+	private static final AtomicReferenceArray<Entry> CACHE = new AtomicReferenceArray<>(CACHE_SIZE);
+
+	private static final class Entry {
+		final BigDecimal x;
+		final BigDecimal root; //its digits are all right but the last one (it isn't rounded to them)
+
+		Entry(BigDecimal x, BigDecimal root) {
+			this.x = x;
+			this.root = root;
+		}
+	}
+
+	private SquareRoot() {
+	}
+
+	/**
+	 * @param x the operand
+	 * @param mc the precision of the result, rounding HALF_EVEN
+	 * @return sqrt(x) rounded to mc
+	 * precondition: x >= 0
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+		if (x.signum() == 0) {
+			return BigDecimal.valueOf(0, x.scale() / 2);
+		}
+		int digits = mc.getPrecision() + GUARD;
+		int slot = x.hashCode() & CACHE_SIZE - 1;
+		Entry entry = CACHE.get(slot);
+		BigDecimal root;
+		if (entry != null && entry.x.equals(x)) {
+			root = entry.root.precision() >= digits ? entry.root : newton(x, entry.root, digits);
+		} else {
+			entry = null;
+			root = newton(x, estimate(x), digits);
+		}
+		if (entry == null || root.precision() > entry.root.precision()) {
+			CACHE.set(slot, new Entry(x, root));
+		}
+		return round(x, root, mc);
+	}
+
+	/**
+	 * @return sqrt(x) to about 16 digits, from a double (x is scaled by an even power of ten, so any BigDecimal fits)
+	 */
+	private static BigDecimal estimate(BigDecimal x) {
+		//x = m * 10^(2k) with 1 <= m < 100
+		int k = Math.floorDiv(x.precision() - x.scale() - 1, 2);
+		double m = x.scaleByPowerOfTen(-2 * k).doubleValue();
+		return new BigDecimal(Math.sqrt(m), new MathContext(DOUBLE_DIGITS + GUARD, RoundingMode.HALF_EVEN)).scaleByPowerOfTen(k);
+	}
+
+	/**
+	 * Improves a root with Newton steps, y = (y + x/y) / 2, each one about doubling its correct digits
+	 * @param x the operand
+	 * @param y a root with at least DOUBLE_DIGITS correct digits
+	 * @param digits the precision wanted
+	 * @return the root, to digits
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	private static BigDecimal newton(BigDecimal x, BigDecimal y, int digits) {
+		int correct = Math.max(DOUBLE_DIGITS, y.precision() - GUARD);
+		while (correct < digits) {
+			if (ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled");
+			}
+			correct = Math.min(digits, 2 * correct - 1);
+			MathContext step = new MathContext(correct + GUARD, RoundingMode.HALF_EVEN);
+			y = y.add(x.divide(y, step)).multiply(HALF, step);
+		}
+		return y;
+	}
+
+	/**
+	 * Rounds a root the way BigDecimal.sqrt does
+	 * @param x the operand
+	 * @param root its root, accurate to more digits than mc
+	 * @param mc the precision
+	 * @return the correctly rounded root (exact if it fits mc), with the scale closest to x.scale() / 2 that fits mc
+	 */
+	private static BigDecimal round(BigDecimal x, BigDecimal root, MathContext mc) {
+		int precision = mc.getPrecision();
+		//the root is within a hundredth of the last digit kept (GUARD digits), so unless the digits dropped are close to
+		//0 or 1 of it (an exact root) or to a half, rounding it is surely right.
+		//(The digits are counted from the truncated root, which doesn't cross a power of ten like the rounded one can)
+		BigDecimal truncated = root.round(new MathContext(precision, RoundingMode.DOWN));
+		BigDecimal unit = truncated.ulp();
+		BigDecimal dropped = root.subtract(truncated);
+		BigDecimal tolerance = unit.movePointLeft(GUARD - 1);
+		if (dropped.compareTo(tolerance) > 0 && unit.subtract(dropped).compareTo(tolerance) > 0
+				&& dropped.subtract(unit.multiply(HALF)).abs().compareTo(tolerance) > 0) {
+			return preferScale(root.round(mc), x.scale() / 2, precision);
+		}
+		BigDecimal ret;
+		//an exact root shorter than the root computed is found by rounding it, it's then checked by squaring
+		BigDecimal exact = root.round(new MathContext(precision + 1, RoundingMode.HALF_EVEN));
+		if (exact.multiply(exact).compareTo(x) == 0) {
+			ret = exact.round(mc); //if it has precision + 1 digits, it's a tie and HALF_EVEN decides
+		} else {
+			//otherwise the root is never a tie, and the rounding is checked against the squares of the halfway points
+			ret = root.round(mc);
+			BigDecimal ulp = ret.ulp();
+			//just below a power of ten, the digits are ten times finer
+			BigDecimal ulpBelow = ret.unscaledValue().equals(BigInteger.TEN.pow(precision - 1)) ? ulp.movePointLeft(1) : ulp;
+			if (ret.subtract(ulpBelow.multiply(HALF)).pow(2).compareTo(x) > 0) {
+				ret = ret.subtract(ulpBelow).round(mc);
+			} else if (ret.add(ulp.multiply(HALF)).pow(2).compareTo(x) < 0) {
+				ret = ret.add(ulp).round(mc);
+			}
+		}
+		return preferScale(ret, x.scale() / 2, precision);
+	}
+
+	/**
+	 * Sets the scale of a root the way BigDecimal.sqrt does: the fewest trailing zeros, then as many as the preferred scale
+	 * and the precision allow
+	 * @param ret the root
+	 * @param preferred the preferred scale
+	 * @param precision the precision of the root
+	 * @return the root, with that scale
+	 */
+	private static BigDecimal preferScale(BigDecimal ret, int preferred, int precision) {
+		if (ret.scale() == preferred) {
+			return ret;
+		}
+		ret = ret.stripTrailingZeros();
+		if (ret.scale() < preferred) {
+			int zeros = Math.min(preferred - ret.scale(), precision - ret.precision());
+			if (zeros > 0) {
+				ret = ret.setScale(ret.scale() + zeros);
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,282 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Sine, cosine and tangent to any precision, for ShuntingYard.applyOperation.
+ *
+ * The angle is reduced to x = k * (right angle) + r with |r| <= half a right angle, then sin(r) or cos(r) is summed as a Taylor series.
+ * - In degrees, the reduction is exact (it's decimal arithmetic with 90 and 360).
+ * - In radians, it uses π computed to as many digits as needed, and it's cached. A large angle needs more digits of π, because
+ *   their error is multiplied by k, so the digits are added until r is known to the requested precision.
+ * Angles that are multiples of a right angle (0, 90, 180... or multiples of π/2 using the π constant of the calculator) give exact results:
+ * sin(180) and sin(π) are 0, tan(90) and tan(π/2) are undefined. So do sin(30) = 0.5 and tan(45) = 1 in degrees.
+ *
+ * The cost grows with the precision (the number of terms and the size of each one), and when the precision is low enough
+ * for a double, the reduced angle is passed to java.lang.Math instead of summing the series.
+ */
+final class Trig {
+
+	//the π constant of the calculator, multiples of its half are treated as exact right angles
+	static final BigDecimal PI_CONSTANT = BigDecimal.valueOf(Math.PI);
+	private static final BigDecimal HALF_PI_CONSTANT = PI_CONSTANT.divide(BigDecimal.valueOf(2));
+	private static final BigDecimal FULL_CIRCLE = BigDecimal.valueOf(360);
+	private static final BigDecimal RIGHT_ANGLE = BigDecimal.valueOf(90);
+	private static final BigDecimal HALF_RIGHT_ANGLE = BigDecimal.valueOf(45);
+	private static final BigDecimal SPECIAL_ANGLE = BigDecimal.valueOf(30); //sin(30) = 0.5
+	private static final BigDecimal HALF = new BigDecimal("0.5");
+	private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+	//at or below this many digits, java.lang.Math is accurate enough for the reduced angle
+	private static final int DOUBLE_DIGITS = 15;
+	//extra digits for the series and the reduction, so the result is right to the requested precision
+	static final int GUARD = 5;
+	//max digits of π used for reducing an angle, it takes about this many integer digits in the angle to reach it
+	static final int MAX_PI_DIGITS = 20000;
+
+	private static final int SIN = 0;
+	private static final int COS = 1;
+	private static final int TAN = 2;
+
+	//π to at least as many digits as was ever needed, and the last rounding of it that was used
+	private static volatile BigDecimal pi = computePi(64);
+	private static volatile BigDecimal roundedPi = pi;
+
+	private Trig() {
+	}
+
+	/**
+	 * @param x the angle
+	 * @param context the angle mode, and the precision of the result
+	 * @return sin(x)
+	 * @throws ArithmeticException if x is too large for its reduction to fit in MAX_PI_DIGITS, or if the thread is interrupted
+	 */
+	static BigDecimal sin(BigDecimal x, OperatorContext context) {
+		if (x.signum() < 0) {
+			return evaluate(x.negate(), context, SIN).negate(); //odd
+		}
+		return evaluate(x, context, SIN);
+	}
+
+	/**
+	 * @param x the angle
+	 * @param context the angle mode, and the precision of the result
+	 * @return cos(x)
+	 * @throws ArithmeticException if x is too large for its reduction to fit in MAX_PI_DIGITS, or if the thread is interrupted
+	 */
+	static BigDecimal cos(BigDecimal x, OperatorContext context) {
+		return evaluate(x.abs(), context, COS); //even
+	}
+
+	/**
+	 * @param x the angle
+	 * @param context the angle mode, and the precision of the result
+	 * @return tan(x), or null if it's undefined
+	 * @throws ArithmeticException if x is too large for its reduction to fit in MAX_PI_DIGITS, or if the thread is interrupted
+	 */
+	static BigDecimal tan(BigDecimal x, OperatorContext context) {
+		if (x.signum() < 0) {
+			BigDecimal ret = evaluate(x.negate(), context, TAN); //odd
+			return ret == null ? null : ret.negate();
+		}
+		return evaluate(x, context, TAN);
+	}
+
+	/**
+	 * Gets π, computed once and cached
+	 * @param digits number of significant digits
+	 * @return π rounded to digits
+	 * @throws ArithmeticException if the thread is interrupted while it's computed
+	 */
+	static BigDecimal pi(int digits) {
+		BigDecimal ret = roundedPi;
+		if (ret.precision() == digits) {
+			return ret;
+		}
+		BigDecimal cached = pi;
+		if (cached.precision() < digits) {
+			synchronized (Trig.class) {
+				cached = pi;
+				if (cached.precision() < digits) {
+					cached = computePi(digits + digits / 4); //headroom, so a slowly growing precision doesn't recompute every time
+					pi = cached;
+				}
+			}
+		}
+		ret = cached.round(new MathContext(digits, RoundingMode.HALF_EVEN));
+		roundedPi = ret;
+		return ret;
+	}
+
+	/**
+	 * Estimates the digit operations of getting π to some digits, 0 if it's already computed to them (see computePi)
+	 * @param digits number of significant digits
+	 * @return the estimate
+	 */
+	static long piCost(int digits) {
+		if (pi.precision() >= digits) {
+			return 0;
+		}
+		//about 1.4 digits per term of atan(1/5) and 4.8 of atan(1/239), each term is two divisions by a small number
+		long computed = digits + digits / 4;
+		return 2 * computed * (computed * 10 / 14 + computed * 10 / 48);
+	}
+
+	/**
+	 * Computes π with Machin's formula: π = 16atan(1/5) - 4atan(1/239), in fixed point integers
+	 * @param digits number of significant digits
+	 * @return π rounded to digits
+	 */
+	private static BigDecimal computePi(int digits) {
+		int scale = digits + 10; //the terms are truncated, the extra digits absorb it
+		BigInteger one = BigInteger.TEN.pow(scale);
+		BigInteger fixed = arctanInverse(5, one).shiftLeft(4).subtract(arctanInverse(239, one).shiftLeft(2));
+		return new BigDecimal(fixed, scale).round(new MathContext(digits, RoundingMode.HALF_EVEN));
+	}
+
+	/**
+	 * @return atan(1/x) * one, by its Taylor series: 1/x - 1/(3x^3) + 1/(5x^5) - ...
+	 */
+	private static BigInteger arctanInverse(int x, BigInteger one) {
+		BigInteger xSquared = BigInteger.valueOf((long) x * x);
+		BigInteger power = one.divide(BigInteger.valueOf(x)); //one / x^(2n+1)
+		BigInteger sum = power;
+		for (int n = 1; power.signum() != 0; n++) {
+			if ((n & 63) == 0 && ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled");
+			}
+			power = power.divide(xSquared);
+			BigInteger term = power.divide(BigInteger.valueOf(2 * n + 1));
+			sum = (n & 1) == 1 ? sum.subtract(term) : sum.add(term);
+		}
+		return sum;
+	}
+
+	/**
+	 * precondition: x >= 0
+	 * @param fn SIN, COS or TAN
+	 * @return the function of x, or null if it's undefined
+	 */
+	private static BigDecimal evaluate(BigDecimal x, OperatorContext context, int fn) {
+		MathContext mc = context.mc;
+		MathContext work = context.trigContext;
+		int quadrant; //x = quadrant * (right angle) + r, only quadrant % 4 matters
+		BigDecimal r; //in radians
+		if (context.degreeMode) {
+			BigDecimal[] qr = x.remainder(FULL_CIRCLE).divideAndRemainder(RIGHT_ANGLE);
+			quadrant = qr[0].intValue();
+			r = qr[1];
+			if (r.compareTo(HALF_RIGHT_ANGLE) > 0) {
+				r = r.subtract(RIGHT_ANGLE);
+				quadrant++;
+			}
+			if (r.signum() == 0) {
+				return rightAngle(quadrant, fn);
+			}
+			if (fn == TAN && r.abs().compareTo(HALF_RIGHT_ANGLE) == 0) {
+				return BigDecimal.valueOf(r.signum() * ((quadrant & 1) == 0 ? 1 : -1)); //tan(45) = 1, -cot(45) = -1
+			}
+			if (fn != TAN && r.abs().compareTo(SPECIAL_ANGLE) == 0 && ((quadrant + fn) & 1) == 0) {
+				BigDecimal half = r.signum() < 0 ? HALF.negate() : HALF; //sin(30) = 0.5
+				return ((quadrant + fn) & 2) == 0 ? half : half.negate();
+			}
+			r = r.multiply(context.radiansPerDegree(), work);
+		} else {
+			//digits of π needed: the digits of x before the point are lost when subtracting k*π/2, then enough for r
+			int intDigits = Math.max(0, x.precision() - x.scale());
+			int extra = intDigits + GUARD;
+			if (mc.getPrecision() + extra > MAX_PI_DIGITS) {
+				throw new ArithmeticException("Angle too large to reduce");
+			}
+			BigDecimal[] qr = x.divideAndRemainder(HALF_PI_CONSTANT);
+			if (qr[1].signum() == 0) {
+				return rightAngle(qr[0].intValue(), fn);
+			}
+			while (true) {
+				int digits = mc.getPrecision() + extra;
+				if (digits > MAX_PI_DIGITS) {
+					throw new ArithmeticException("Angle too large to reduce");
+				}
+				if (ShuntingYard.cancelled()) {
+					throw new ArithmeticException("Cancelled");
+				}
+				BigDecimal halfPi = pi(digits).divide(TWO);
+				qr = x.divideAndRemainder(halfPi);
+				quadrant = qr[0].intValue();
+				r = qr[1];
+				if (r.compareTo(halfPi.divide(TWO)) > 0) {
+					r = r.subtract(halfPi);
+					quadrant++;
+				}
+				//the error of halfPi is below 10^(1-digits), times k < 10^intDigits. The leading digit of r is at 10^(lead-1)
+				int lead = r.precision() - r.scale();
+				int correct = r.signum() == 0 ? 0 : lead - 1 - (intDigits + 1 - digits);
+				if (correct >= work.getPrecision()) {
+					break;
+				}
+				extra += work.getPrecision() - correct + GUARD; //close to a multiple of π/2, r is smaller than it looked
+			}
+		}
+		boolean useCos = ((quadrant + fn) & 1) == 1; //sin(x + 90) = cos(x)
+		boolean negate = ((quadrant + (fn == COS ? 1 : 0)) & 2) != 0; //sin is negative in the 3rd and 4th quadrants
+		if (fn == TAN) {
+			//tan(r) in even quadrants, -cot(r) in odd ones
+			BigDecimal sin = sinOrCos(r, false, work);
+			BigDecimal cos = sinOrCos(r, true, work);
+			return (quadrant & 1) == 0 ? sin.divide(cos, mc) : cos.divide(sin, mc).negate();
+		}
+		BigDecimal ret = sinOrCos(r, useCos, work).round(mc);
+		return negate ? ret.negate() : ret;
+	}
+
+	/**
+	 * @return the exact value of the function for a multiple of a right angle (null if it's undefined)
+	 */
+	private static BigDecimal rightAngle(int quadrant, int fn) {
+		if (fn == TAN) {
+			return (quadrant & 1) == 0 ? BigDecimal.ZERO : null;
+		}
+		switch ((quadrant + fn) & 3) { //sin: 0, 1, 0, -1
+			case 1:
+				return BigDecimal.ONE;
+			case 3:
+				return BigDecimal.ONE.negate();
+			default:
+				return BigDecimal.ZERO;
+		}
+	}
+
+	/**
+	 * Sums the Taylor series of sin or cos
+	 * precondition: |r| <= π/4, so the terms shrink from the start
+	 * @param r angle in radians
+	 * @param cos true for cos(r), false for sin(r)
+	 * @param mc the precision of the sum
+	 * @return sin(r) or cos(r)
+	 * @throws ArithmeticException if the thread is interrupted
+	 */
+	private static BigDecimal sinOrCos(BigDecimal r, boolean cos, MathContext mc) {
+		if (mc.getPrecision() <= DOUBLE_DIGITS + GUARD) {
+			double dbl = r.doubleValue();
+			return new BigDecimal(cos ? Math.cos(dbl) : Math.sin(dbl), mc); //within an ulp, and the angle is small so it's relative too
+		}
+		BigDecimal minusSquare = r.multiply(r, mc).negate();
+		BigDecimal term = cos ? BigDecimal.ONE : r;
+		BigDecimal sum = term;
+		//sin: r - r^3/3! + r^5/5! ... cos: 1 - r^2/2! + r^4/4! ...
+		for (int n = cos ? 1 : 2; ; n += 2) {
+			if (ShuntingYard.cancelled()) {
+				throw new ArithmeticException("Cancelled"); //a term at 1337 digits is cheap, so this stops quickly
+			}
+			term = term.multiply(minusSquare, mc).divide(BigDecimal.valueOf((long) n * (n + 1)), mc);
+			if (term.signum() == 0 || term.precision() - term.scale() < sum.precision() - sum.scale() - mc.getPrecision()) {
+				break; //below the last digit of the sum
+			}
+			sum = sum.add(term, mc);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,161 @@
+package shuntingyardcalc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Unsynchronized, array backed stack of values for the calculator.
+ * 
+ * Every push and pop is written to an undo log (the journal), so a failed request can be rolled back
+ * by undoing only the entries it touched, instead of working on a copy of the whole stack.
+ * The journal is kept until the stack is cleared, so any earlier mark acts as a checkpoint: rolling back to it
+ * costs as much as the work done since, no matter how large the stack is.
+ * - A pop is logged as the value it removed
+ * - A push is logged as null (values on the stack are never null)
+ * 
+ * In exact mode (see ShuntingYard) a value can be a fraction: its decimal numerator is the item, and its denominator
+ * is kept beside it (null for a decimal). peek and pop only give the numerator, see denominator.
+ */
+final class ValueStack {
+
+	private BigDecimal[] items;
+	private BigInteger[] denominators; //denominator of each item, null if it's a decimal
+	private int size;
+	private BigDecimal[] journal;
+	private BigInteger[] journalDenominators; //denominator of each popped value
+	private int journalSize;
+
+	/**
+	 * Constructor, creates an empty stack
+	 */
+	ValueStack() {
+		items = new BigDecimal[16];
+		denominators = new BigInteger[16];
+		journal = new BigDecimal[16];
+		journalDenominators = new BigInteger[16];
+	}
+
+	/**
+	 * Pushes a value to the top of the stack
+	 * precondition: val is not null
+	 * @param val the value
+	 */
+	void push(BigDecimal val) {
+		push(val, null);
+	}
+
+	/**
+	 * Pushes a fraction to the top of the stack
+	 * precondition: numerator is not null, denominator is null or positive and not a multiple of 2 or 5 (see Rational)
+	 * @param numerator the numerator
+	 * @param denominator the denominator, null for a decimal
+	 */
+	void push(BigDecimal numerator, BigInteger denominator) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size * 2);
+			denominators = Arrays.copyOf(denominators, size * 2);
+		}
+		denominators[size] = denominator;
+		items[size++] = numerator;
+		log(null, null);
+	}
+
+	/**
+	 * Removes the value on top of the stack
+	 * precondition: stack is not empty
+	 * @return the removed value (the numerator, if it's a fraction)
+	 */
+	BigDecimal pop() {
+		BigDecimal val = items[--size];
+		BigInteger denominator = denominators[size];
+		items[size] = null;
+		denominators[size] = null;
+		log(val, denominator);
+		return val;
+	}
+
+	/**
+	 * precondition: stack is not empty
+	 * @return the value on top of the stack
+	 */
+	BigDecimal peek() {
+		return items[size - 1];
+	}
+
+	/**
+	 * precondition: stack has more than depth values
+	 * @param depth 0 for the value on top of the stack, 1 for the one below it...
+	 * @return that value (the numerator, if it's a fraction)
+	 */
+	BigDecimal peek(int depth) {
+		return items[size - 1 - depth];
+	}
+
+	/**
+	 * precondition: stack has more than depth values
+	 * @param depth 0 for the value on top of the stack, 1 for the one below it...
+	 * @return the denominator of that value, null if it's a decimal
+	 */
+	BigInteger denominator(int depth) {
+		return denominators[size - 1 - depth];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Empties the stack and its journal
+	 */
+	void clear() {
+		Arrays.fill(items, 0, size, null);
+		Arrays.fill(denominators, 0, size, null);
+		size = 0;
+		Arrays.fill(journal, 0, journalSize, null);
+		Arrays.fill(journalDenominators, 0, journalSize, null);
+		journalSize = 0;
+	}
+
+	/**
+	 * Gets the current position in the journal, to be passed to rollback if the request fails or is popped
+	 * @return the position
+	 */
+	int mark() {
+		return journalSize;
+	}
+
+	/**
+	 * Undoes every push and pop made since the mark, newest first
+	 * precondition: mark was returned by mark() after the last clear, and the journal has not been rolled back past it since
+	 * postcondition: the stack is in the same state as when mark() was called
+	 * @param mark the journal position
+	 */
+	void rollback(int mark) {
+		while (journalSize > mark) {
+			BigDecimal val = journal[--journalSize];
+			journal[journalSize] = null;
+			if (val == null) {
+				items[--size] = null;
+				denominators[size] = null;
+			} else {
+				denominators[size] = journalDenominators[journalSize];
+				journalDenominators[journalSize] = null;
+				items[size++] = val; //there is always room, because the value was in this slot before
+			}
+		}
+	}
+
+	private void log(BigDecimal entry, BigInteger denominator) {
+		if (journalSize == journal.length) {
+			journal = Arrays.copyOf(journal, journalSize * 2);
+			journalDenominators = Arrays.copyOf(journalDenominators, journalSize * 2);
+		}
+		journalDenominators[journalSize] = denominator;
+		journal[journalSize++] = entry;
+	}
+}